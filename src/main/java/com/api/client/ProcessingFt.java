@@ -32,6 +32,19 @@ public interface ProcessingFt {
             @HeaderParam("companyId") String companyId
     );
 
+    /**
+     * Même appel avec un corps JSON déjà encodé (payload pré-calculé à la validation ou encodé une seule fois au dispatch)
+     */
+    @POST
+    @Path("/process")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    Response processTransactionJson(
+            byte[] requestJson,
+            @HeaderParam("uniqueIdentifier") String uniqueIdentifier,
+            @HeaderParam("companyId") String companyId
+    );
+
     /**
      * Annuler/Inverser une transaction par référence T24
      *
@@ -41,4 +41,17 @@ public interface ProcessingSica {
             @HeaderParam("uniqueIdentifier") String uniqueIdentifier,
             @HeaderParam("companyId") String companyId
     );
+
+    /**
+     * Same call with an already encoded JSON body (payload prebuilt at validation or encoded once at dispatch).
+     */
+    @POST
+    @Path("/sicaTransfer")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    Response sicaTransferJson(
+            byte[] requestJson,
+            @HeaderParam("uniqueIdentifier") String uniqueIdentifier,
+            @HeaderParam("companyId") String companyId
+    );
 }
@@ -40,4 +40,17 @@ public interface ProcessingSicaSn {
             @HeaderParam("uniqueIdentifier") String uniqueIdentifier,
             @HeaderParam("companyId") String companyId
     );
+
+    /**
+     * Same call with an already encoded JSON body (payload prebuilt at validation or encoded once at dispatch).
+     */
+    @POST
+    @Path("/sicaTransferSn")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    Response sicaTransferSnJson(
+            byte[] requestJson,
+            @HeaderParam("uniqueIdentifier") String uniqueIdentifier,
+            @HeaderParam("companyId") String companyId
+    );
 }
@@ -5,6 +5,8 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.transact.dto.ApiError;
 import com.transact.processor.model.*;
+import com.transact.scheduler.BatchQueue;
+import com.transact.scheduler.PayloadPrebuilder;
 import com.transact.service.GridFsService;
 import com.transact.service.IdempotencyService;
 import com.transact.service.VirementSalaireBillingService;
@@ -59,6 +61,9 @@ public class BatchResource {
     @Inject
     IdempotencyService idempotency;
 
+    @Inject
+    PayloadPrebuilder payloadPrebuilder;
+
     @Inject
     ObjectMapper objectMapper;
 
@@ -457,6 +462,7 @@ public class BatchResource {
                 com.mongodb.client.model.Updates.combine(
                         com.mongodb.client.model.Updates.set("processingStatus", "PENDING"),
                         com.mongodb.client.model.Updates.set("retryCount", 0),
+                        com.mongodb.client.model.Updates.unset("nextAttemptAt"),
                         com.mongodb.client.model.Updates.unset("workerId")
                 )
         );
@@ -467,6 +473,11 @@ public class BatchResource {
                 com.mongodb.client.model.Updates.set("status", FileBatch.STATUS_VALIDATED)
         );
 
+        // Row counters: failed rows are pending again
+        long total = BatchData.count("batchId", bId);
+        long completed = BatchData.count("batchId = ?1 and processingStatus = ?2", bId, "COMPLETED");
+        FileBatch.syncRowCounters(bId, total, completed, 0);
+
         // Reset statistics so the next run starts clean
         BatchStatistics.mongoCollection().deleteMany(
                 com.mongodb.client.model.Filters.eq("id", bId));
@@ -483,7 +494,8 @@ public class BatchResource {
      * Lightweight polling endpoint for the live progress bar.
      * Called every 3 seconds by the frontend while a batch is PROCESSING.
      * <p>
-     * Uses two fast index-backed counts instead of loading all rows:
+     * Reads the batch's row counters (already loaded with the batch — no extra
+     * query). Batches created before counters existed fall back to index-backed counts:
      * total = BatchData.count(batchId)
      * done  = BatchData.count(batchId + terminal status)
      * <p>
@@ -511,11 +523,19 @@ public class BatchResource {
                 return Response.status(403).entity(Map.of("message", "Accès refusé")).build();
         }
 
-        long total = BatchData.count("batchId", bId);
-        long done = BatchData.count("batchId = ?1 and processingStatus in ?2", bId,
-                List.of("COMPLETED", "FAILED", "FAILED_PERMANENT", "NO_RESPONSE"));
-        long success = BatchData.count("batchId = ?1 and processingStatus = ?2", bId, "COMPLETED");
-        long failed = done - success;  // everything done that isn't success
+        long total, done, success, failed;
+        if (batch.rowCounters) {
+            success = batch.rowsCompleted;
+            failed = batch.rowsFailed;
+            done = success + failed;
+            total = done + batch.rowsPending;
+        } else {
+            total = BatchData.count("batchId", bId);
+            done = BatchData.count("batchId = ?1 and processingStatus in ?2", bId,
+                    List.of("COMPLETED", "FAILED", "FAILED_PERMANENT", "NO_RESPONSE"));
+            success = BatchData.count("batchId = ?1 and processingStatus = ?2", bId, "COMPLETED");
+            failed = done - success;  // everything done that isn't success
+        }
         int pct = total > 0 ? (int) Math.round(done * 100.0 / total) : 0;
 
         return Response.ok(Map.of(
@@ -635,6 +655,12 @@ public class BatchResource {
                     .entity(ApiError.of("BAD_REQUEST", "Transition de statut invalide", path))
                     .build();
 
+        if (request.priority() != null
+                && (request.priority() < BatchQueue.MIN_PRIORITY || request.priority() > BatchQueue.MAX_PRIORITY))
+            return Response.status(400)
+                    .entity(ApiError.of("BAD_REQUEST", "Priorité invalide (0 à 9)", path))
+                    .build();
+
         if (!FileBatch.STATUS_UPLOADED.equals(batch.status))
             return Response.status(409)
                     .entity(ApiError.of("CONFLICT",
@@ -644,11 +670,22 @@ public class BatchResource {
         batch.status = FileBatch.STATUS_VALIDATED;
         batch.validatedById = validatorName;
         batch.validationTimestamp = Instant.now();
+        batch.priority = request.priority();
+        batch.valueDate = BatchQueue.valueDateOf(batch);
+        batch.valueDateResolved = true;
 
-        BatchStatistics stats = BatchStatistics.calculate(batchId);
+        BatchStatistics stats = BatchStatistics.calculate(batch);
         if (stats != null) stats.persistOrUpdate();
         batch.update();
 
+        // Gateway payloads are built in the background; rows dispatched before theirs is
+        // written are built at dispatch, so the validation never waits for a large batch
+        try {
+            payloadPrebuilder.prebuildAsync(batch.id, getAppName(batch.applicationId));
+        } catch (Exception e) {
+            LOG.warnf(e, "Lot %s : pré-calcul des payloads impossible, ils seront construits au traitement", id);
+        }
+
         AdminAuditLog.record(validatorName, AdminAuditLog.BATCH_VALIDATED, id,
                 "Lot " + batch.originalFilename + " validé et envoyé en traitement",
                 Map.of("application", getAppName(batch.applicationId),
@@ -766,6 +803,54 @@ public class BatchResource {
             @JsonProperty("flatFeeAmount") BigDecimal flatFeeAmount) {
     }
 
+    /**
+     * Résout l'étape 1 d'un lot VIREMENT_SALAIRE restée sans réponse (délai dépassé,
+     * 502/504) : T24 a peut-être déjà débité le compte société. Après vérification dans
+     * T24, l'admin confirme le mouvement (sa référence T24 — l'étape 1 ne sera pas
+     * renvoyée) ou l'écarte ({@code t24Reference} vide — elle sera renvoyée), puis relance
+     * le lot.
+     */
+    @POST
+    @Path("/{id}/virsal-step1")
+    @RolesAllowed("ADMIN")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    @Operation(summary = "Confirmer ou écarter l'étape 1 sans réponse d'un lot de virements de salaires")
+    public Response resolveVirsalStep1(@PathParam("id") String id, Step1Resolution request) {
+        String path = "/api/v1/batches/" + id + "/virsal-step1";
+        ObjectId bId = parseObjectId(id);
+        FileBatch batch = FileBatch.findById(bId);
+        if (batch == null)
+            return Response.status(404).entity(ApiError.of("NOT_FOUND", "Lot non trouvé", path)).build();
+        if (batch.virsalStep1Done || batch.virsalStep1Unconfirmed == null)
+            return Response.status(409).entity(ApiError.of("CONFLICT",
+                    "L'étape 1 de ce lot n'est pas en attente de vérification", path)).build();
+        if (FileBatch.STATUS_PROCESSING.equals(batch.status))
+            return Response.status(409).entity(ApiError.of("CONFLICT",
+                    "Lot en cours de traitement", path)).build();
+
+        String ref = request == null || request.t24Reference() == null || request.t24Reference().isBlank()
+                ? null : request.t24Reference().trim();
+        FileBatch.mongoCollection().updateOne(com.mongodb.client.model.Filters.eq("_id", bId),
+                ref != null
+                        ? com.mongodb.client.model.Updates.combine(
+                        com.mongodb.client.model.Updates.set("virsalStep1Done", true),
+                        com.mongodb.client.model.Updates.set("virsalStep1Ref", ref),
+                        com.mongodb.client.model.Updates.unset("virsalStep1Unconfirmed"))
+                        : com.mongodb.client.model.Updates.unset("virsalStep1Unconfirmed"));
+
+        String message = ref != null
+                ? "Étape 1 confirmée (" + ref + ") — elle ne sera pas renvoyée"
+                : "Étape 1 écartée — elle sera renvoyée à la relance";
+        AdminAuditLog.record(identity.getPrincipal().getName(), "BATCH_VIRSAL_STEP1_RESOLVED", id,
+                message + " pour " + batch.originalFilename, Map.of("t24Reference", String.valueOf(ref)));
+        ProcessingLogEntry.log(bId, "WARN", message);
+        return Response.ok(Map.of("message", message, "batchId", id)).build();
+    }
+
+    public record Step1Resolution(@JsonProperty("t24Reference") String t24Reference) {
+    }
+
     @DELETE
     @Path("/{id}")
     public Response deleteBatchById(@PathParam("id") String id) {
@@ -1016,10 +1101,12 @@ public class BatchResource {
     ) {
     }
 
-    public record BatchUpdateRequest(String status) {
+    public record BatchUpdateRequest(String status, Integer priority) {
         @JsonCreator
-        public BatchUpdateRequest(@JsonProperty("status") String status) {
+        public BatchUpdateRequest(@JsonProperty("status") String status,
+                                  @JsonProperty("priority") Integer priority) {
             this.status = status;
+            this.priority = priority;
         }
     }
 
@@ -0,0 +1,117 @@
+package com.transact;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.transact.processor.model.AdminAuditLog;
+import com.transact.processor.model.GatewayRateLimit;
+import com.transact.scheduler.AdaptiveLimiter;
+import com.transact.scheduler.GatewayBreakers;
+import com.transact.scheduler.GatewayPermits;
+import com.transact.scheduler.GatewayRateLimiter;
+import io.quarkus.security.identity.SecurityIdentity;
+import jakarta.annotation.security.RolesAllowed;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.*;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Ops view of the adaptive concurrency limit of each T24 gateway on this node
+ * (current limit, in-flight calls, smoothed / baseline latency, drop count), and
+ * runtime configuration of the per-gateway / per-company request rate.
+ */
+@Path("/api/v1/admin/gateways")
+@Produces(MediaType.APPLICATION_JSON)
+public class GatewayResource {
+
+    @Inject
+    GatewayPermits gatewayPermits;
+    @Inject
+    GatewayRateLimiter rateLimiter;
+    @Inject
+    GatewayBreakers breakers;
+    @Inject
+    SecurityIdentity identity;
+
+    @GET
+    @RolesAllowed("ADMIN")
+    public List<AdaptiveLimiter.Snapshot> getGatewayLimits() {
+        return gatewayPermits.snapshots();
+    }
+
+    /**
+     * Circuit breaker state per gateway (CLOSED / OPEN / HALF_OPEN).
+     */
+    @GET
+    @Path("/breakers")
+    @RolesAllowed("ADMIN")
+    public List<GatewayBreakers.Snapshot> getBreakers() {
+        return breakers.snapshots();
+    }
+
+    // ── Rate limits ───────────────────────────────────────────────────────────
+
+    @GET
+    @Path("/rate-limits")
+    @RolesAllowed("ADMIN")
+    public Map<String, Object> getRateLimits() {
+        return Map.of(
+                "limits", GatewayRateLimit.listAll(),
+                "buckets", rateLimiter.snapshots());
+    }
+
+    /**
+     * Creates or replaces the limit of a gateway (companyId omitted → gateway default).
+     * Applied on this node at once, on the others within app.processing.rate-limit.refresh.
+     */
+    @PUT
+    @Path("/rate-limits")
+    @RolesAllowed("ADMIN")
+    @Consumes(MediaType.APPLICATION_JSON)
+    public Response putRateLimit(RateLimitRequest req) {
+        if (req == null || req.gatewayKey() == null || req.gatewayKey().isBlank()
+                || req.requestsPerSecond() == null || req.requestsPerSecond() < 0)
+            return Response.status(400)
+                    .entity(Map.of("message", "gatewayKey et requestsPerSecond (≥ 0) sont obligatoires"))
+                    .build();
+
+        String companyId = req.companyId() == null || req.companyId().isBlank() ? null : req.companyId().trim();
+        GatewayRateLimit limit = GatewayRateLimit.findByKey(req.gatewayKey().trim(), companyId)
+                .orElseGet(GatewayRateLimit::new);
+        limit.gatewayKey = req.gatewayKey().trim();
+        limit.companyId = companyId;
+        limit.requestsPerSecond = req.requestsPerSecond();
+        limit.burst = req.burst() != null ? req.burst() : 0;
+        limit.enabled = req.enabled() == null || req.enabled();
+        limit.updatedBy = identity.getPrincipal().getName();
+        limit.lastUpdated = Instant.now();
+        limit.persistOrUpdate();
+
+        rateLimiter.reload();
+        AdminAuditLog.record(limit.updatedBy, AdminAuditLog.RATE_LIMIT_UPDATED, limit.gatewayKey,
+                String.format("Limite %s / %s : %.2f req/s (burst %d)%s", limit.gatewayKey,
+                        companyId != null ? companyId : "défaut", limit.requestsPerSecond, limit.burst,
+                        limit.enabled ? "" : " désactivée"));
+        return Response.ok(limit).build();
+    }
+
+    public record RateLimitRequest(String gatewayKey, String companyId, Double requestsPerSecond,
+                                   Integer burst, Boolean enabled) {
+        @JsonCreator
+        public RateLimitRequest(@JsonProperty("gatewayKey") String gatewayKey,
+                                @JsonProperty("companyId") String companyId,
+                                @JsonProperty("requestsPerSecond") Double requestsPerSecond,
+                                @JsonProperty("burst") Integer burst,
+                                @JsonProperty("enabled") Boolean enabled) {
+            this.gatewayKey = gatewayKey;
+            this.companyId = companyId;
+            this.requestsPerSecond = requestsPerSecond;
+            this.burst = burst;
+            this.enabled = enabled;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.transact;
+
+import com.transact.scheduler.BatchQueue;
+import com.transact.scheduler.RowDispatchEngine;
+import com.transact.scheduler.StuckBatchWatchdog;
+import jakarta.annotation.security.RolesAllowed;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.MediaType;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Ops view of the batch processing pipeline on this node.
+ */
+@Path("/api/v1/admin/processing")
+@Produces(MediaType.APPLICATION_JSON)
+public class ProcessingResource {
+
+    @Inject
+    StuckBatchWatchdog watchdog;
+    @Inject
+    RowDispatchEngine engine;
+    @Inject
+    BatchQueue queue;
+
+    /**
+     * Runnable batches per application, in start order (see {@link BatchQueue}).
+     */
+    @GET
+    @Path("/queue")
+    @RolesAllowed("ADMIN")
+    public List<BatchQueue.Entry> getQueue() {
+        return queue.snapshot();
+    }
+
+    @GET
+    @Path("/watchdog")
+    @RolesAllowed("ADMIN")
+    public StuckBatchWatchdog.Snapshot getWatchdog() {
+        return watchdog.snapshot();
+    }
+
+    /**
+     * Rows in flight per application and fair-share tenant (COUNTRY-DEPARTMENT).
+     */
+    @GET
+    @Path("/shares")
+    @RolesAllowed("ADMIN")
+    public Map<String, Map<String, Integer>> getFairShares() {
+        return engine.fairShares();
+    }
+}
@@ -1,14 +1,13 @@
 package com.transact;
 
-import com.transact.exception.ValidationError;
+import com.transact.exception.FileTooLargeException;
 import com.transact.exception.ValidationException;
 import com.transact.processor.model.Application;
-import com.transact.processor.model.BatchData;
 import com.transact.processor.model.FileBatch;
 import com.transact.service.ApplicationService;
-import com.transact.service.FileParser;
-import com.transact.service.FileValidator;
+import com.transact.service.BatchIngestor;
 import com.transact.service.GridFsService;
+import io.quarkus.runtime.configuration.MemorySize;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import jakarta.annotation.security.RolesAllowed;
@@ -19,18 +18,18 @@ import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
 import jakarta.ws.rs.core.SecurityContext;
 import org.bson.types.ObjectId;
+import org.eclipse.microprofile.config.ConfigProvider;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.eclipse.microprofile.jwt.JsonWebToken;
 import org.eclipse.microprofile.openapi.annotations.tags.Tag;
 import org.jboss.resteasy.reactive.RestForm;
 import org.jboss.resteasy.reactive.multipart.FileUpload;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
 import java.time.Instant;
-import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 
 
 @Path("/api/v1/inputter")
@@ -38,17 +37,18 @@ import java.util.Map;
 @RolesAllowed("INPUTTER")
 public class UploadResource {
 
+    // Per-application overrides: com.transact.upload.max-lines.<APP> / max-bytes.<APP>
     @ConfigProperty(name = "com.transact.upload.max-lines", defaultValue = "1000")
     int maxLines;
 
-    @Inject
-    GridFsService gridFsService;
+    @ConfigProperty(name = "com.transact.upload.max-bytes", defaultValue = "10M")
+    MemorySize maxBytes;
 
     @Inject
-    FileParser fileParser;
+    GridFsService gridFsService;
 
     @Inject
-    FileValidator fileValidator;
+    BatchIngestor batchIngestor;
 
     @Inject
     ApplicationService applicationService;
@@ -92,41 +92,55 @@ public class UploadResource {
             return badRequest("A version of '" + originalFilename + "' is already active or processed.");
         }
 
-        String userId = securityContext.getUserPrincipal().getName();
-
-        // 3. Store raw file in GridFS BEFORE any parsing.
-        //    This guarantees the original bytes are always available regardless of
-        //    what happens during validation or processing.
-        ObjectId gridFsFileId;
-        try (InputStream rawStream = Files.newInputStream(fileUpload.filePath())) {
-            gridFsFileId = gridFsService.store(originalFilename, rawStream, userId);
-        } catch (Exception e) {
-            return serverError("Échec du stockage du fichier : " + e.getMessage());
+        long maxBytes = maxBytes(appConfig);
+        if (fileUpload.size() > maxBytes) {
+            return Response.status(413)
+                    .entity(new JsonObject()
+                            .put("error", "Fichier trop volumineux")
+                            .put("message", "Le fichier dépasse la limite de " + maxBytes / (1024 * 1024) + " Mo.")
+                            .encode())
+                    .build();
         }
 
-        // 4. Parse and validate from the now-safely-stored file
-        try (InputStream parseStream = Files.newInputStream(fileUpload.filePath())) {
-            List<Map<String, String>> rawData = fileParser.parseCsv(parseStream);
+        String userId = securityContext.getUserPrincipal().getName();
 
-            if (rawData == null || rawData.isEmpty()) {
-                throw new ValidationException(List.of(new ValidationError(1, null, "CSV file is empty")));
+        // 3. Read the upload ONCE: the bytes the parser reads are copied to GridFS by a
+        //    background writer, so storing and parsing overlap. The original file is
+        //    still always kept, whatever happens during validation or processing.
+        // 4. Parse, validate and insert the rows chunk by chunk, under the id the batch
+        //    will get — the rows stay invisible until the batch itself is persisted
+        ObjectId gridFsFileId = new ObjectId();
+        ObjectId batchId = new ObjectId();
+        try (InputStream rawStream = Files.newInputStream(fileUpload.filePath());
+             GridFsService.Tee upload = gridFsService.tee(gridFsFileId, originalFilename, rawStream, userId)) {
+            long rows = 0;
+            Exception failure = null;
+            try {
+                rows = batchIngestor.ingest(upload.input(), appConfig, batchId, maxLines(appConfig), fileUpload.size());
+            } catch (Exception e) {
+                failure = e;   // the file is stored whatever the content (see below)
             }
-
-            if (rawData.size() > maxLines) {
+            try {
+                upload.complete();
+            } catch (IOException e) {
+                // Upload aborted, nothing left in GridFS; rows only remain if ingestion succeeded
+                if (failure == null) batchIngestor.discard(batchId);
+                return serverError("Échec du stockage du fichier : " + e.getMessage());
+            }
+            if (failure instanceof FileTooLargeException e) {
                 // File is already stored — clean up to avoid orphaned GridFS entries
                 gridFsService.delete(gridFsFileId);
                 return Response.status(413)
                         .entity(new JsonObject()
                                 .put("error", "Fichier trop volumineux")
-                                .put("message", "Le fichier dépasse la limite de " + maxLines + " lignes.")
+                                .put("message", "Le fichier dépasse la limite de " + e.getLimit() + " lignes.")
                                 .encode())
                         .build();
             }
+            if (failure != null) throw failure;
 
-            List<Map<String, Object>> validatedData = fileValidator.validateAndConvert(rawData, appConfig);
-
-            // 5. Create Batch record and persist ONCE — then save rows
-            FileBatch batch = createSuccessBatch(appConfig, validatedData, gridFsFileId);
+            // 5. Create the batch record and persist it ONCE, with the rows' batch id
+            FileBatch batch = createSuccessBatch(appConfig, batchId, rows, gridFsFileId);
             batch.originalFilename = originalFilename;
             batch.status = FileBatch.STATUS_UPLOADED;
 
@@ -134,6 +148,7 @@ public class UploadResource {
             try {
                 batch.persist();
             } catch (com.mongodb.MongoWriteException e) {
+                batchIngestor.discard(batchId);
                 if (e.getError().getCode() == 11000) {
                     gridFsService.delete(gridFsFileId);
                     return badRequest("Duplicate file: '" + originalFilename + "' has already being uploaded.");
@@ -141,10 +156,7 @@ public class UploadResource {
                 throw e;
             }
 
-            // 7. Save row data now that batch has an id
-            saveBatchData(batch, validatedData);
-
-            return successResponse(batch, validatedData.size(), idempotencyKey);
+            return successResponse(batch, (int) rows, idempotencyKey);
 
         } catch (ValidationException e) {
             // Keep the GridFS file even on validation failure — it lets admins
@@ -183,10 +195,24 @@ public class UploadResource {
     // ========================================
     // HELPERS
     // ========================================
-    private FileBatch createSuccessBatch(Application app, List<Map<String, Object>> validatedData, ObjectId gridFsFileId) {
+    private int maxLines(Application app) {
+        return ConfigProvider.getConfig()
+                .getOptionalValue("com.transact.upload.max-lines." + app.name, Integer.class)
+                .orElse(maxLines);
+    }
+
+    private long maxBytes(Application app) {
+        return ConfigProvider.getConfig()
+                .getOptionalValue("com.transact.upload.max-bytes." + app.name, MemorySize.class)
+                .orElse(maxBytes)
+                .asLongValue();
+    }
+
+    private FileBatch createSuccessBatch(Application app, ObjectId batchId, long rows, ObjectId gridFsFileId) {
         String userId = securityContext.getUserPrincipal().getName();
 
         FileBatch batch = new FileBatch();
+        batch.id = batchId;
         batch.applicationId = app.id;
         batch.uploadedById = userId;
         batch.uploadTimestamp = Instant.now();
@@ -196,30 +222,19 @@ public class UploadResource {
         var report = new FileBatch.ValidationReport();
         report.errors = 0;
         report.warnings = 0;
-        report.summary = "Validation successful. " + validatedData.size() + " records processed.";
+        report.summary = "Validation successful. " + rows + " records processed.";
         report.details = List.of();
         batch.validationReport = report;
 
+        // Row counters start with every row pending (see FileBatch.rowCounters)
+        batch.rowCounters = true;
+        batch.rowsPending = rows;
+
         // NOTE: do NOT call persist() here — caller handles persistence
-        // so they can catch the duplicate key error before writing BatchData
-        saveBatchData(batch, validatedData);
+        // so they can catch the duplicate key error and discard the rows
         return batch;
     }
 
-    private void saveBatchData(FileBatch batch, List<Map<String, Object>> validatedData) {
-        ObjectId batchId = batch.id;
-        List<BatchData> records = new ArrayList<>();
-        for (int i = 0; i < validatedData.size(); i++) {
-            BatchData bd = new BatchData();
-            bd.batchId = batchId;
-            bd.lineNumber = i + 2;
-            bd.data = validatedData.get(i);
-            bd.createdAt = Instant.now();
-            records.add(bd);
-        }
-        BatchData.persist(records);
-    }
-
     private FileBatch createFailedBatch(Application app, Exception e, ObjectId gridFsFileId) {
         String userId = securityContext.getUserPrincipal().getName();
 
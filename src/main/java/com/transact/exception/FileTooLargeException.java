@@ -0,0 +1,17 @@
+package com.transact.exception;
+
+/**
+ * Upload rejected while it was being read: more lines than the application allows.
+ */
+public class FileTooLargeException extends RuntimeException {
+    private final long limit;
+
+    public FileTooLargeException(long limit) {
+        super("File exceeds " + limit + " lines");
+        this.limit = limit;
+    }
+
+    public long getLimit() {
+        return limit;
+    }
+}
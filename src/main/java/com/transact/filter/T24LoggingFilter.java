@@ -9,6 +9,8 @@ import jakarta.ws.rs.client.ClientResponseContext;
 import jakarta.ws.rs.client.ClientResponseFilter;
 import jakarta.ws.rs.ext.Provider;
 
+import java.nio.charset.StandardCharsets;
+
 @Provider
 public class T24LoggingFilter implements ClientRequestFilter, ClientResponseFilter {
 
@@ -26,10 +28,12 @@ public class T24LoggingFilter implements ClientRequestFilter, ClientResponseFilt
                 requestContext.getUri());
 
         // Log payload only at DEBUG level to keep logs clean
-        if (requestContext.hasEntity()) {
+        if (requestContext.hasEntity() && Log.isDebugEnabled()) {
             try {
-                // Convert the TransactionRequest object into a JSON string
-                String jsonPayload = objectMapper.writeValueAsString(requestContext.getEntity());
+                // Bodies sent by the engine are already JSON bytes: decode them, never re-encode
+                Object entity = requestContext.getEntity();
+                String jsonPayload = entity instanceof byte[] b ? new String(b, StandardCharsets.UTF_8)
+                        : entity instanceof String s ? s : objectMapper.writeValueAsString(entity);
                 Log.debugf("[%s] Payload: %s", correlationId, jsonPayload);
             } catch (Exception e) {
                 Log.warnf("[%s] Could not serialize payload for logging: %s", correlationId, e.getMessage());
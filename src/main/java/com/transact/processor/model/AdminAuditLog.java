@@ -70,6 +70,7 @@ public class AdminAuditLog extends PanacheMongoEntity {
     }
     public static final String PASSWORD_RESET_ADMIN = "PASSWORD_RESET_BY_ADMIN";
     public static final String WINDOW_UPDATED = "OPERATING_WINDOW_UPDATED";
+    public static final String RATE_LIMIT_UPDATED = "GATEWAY_RATE_LIMIT_UPDATED";
     public static final String BATCH_DELETED = "BATCH_DELETED";
     public static final String BATCH_VALIDATED = "BATCH_VALIDATED";
     /** Structured action type: USER_CREATED, USER_LOCKED, PASSWORD_CHANGED, etc. */
@@ -1,12 +1,24 @@
 package com.transact.processor.model;
 
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.Updates;
 import io.quarkus.mongodb.panache.PanacheMongoEntity;
 import io.quarkus.mongodb.panache.common.MongoEntity;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.enterprise.event.Observes;
+import org.bson.conversions.Bson;
 import org.bson.types.ObjectId;
 
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Stream;
 
 @MongoEntity(collection = "batch_data")
 public class BatchData extends PanacheMongoEntity {
@@ -14,10 +26,27 @@ public class BatchData extends PanacheMongoEntity {
     public ObjectId batchId;
     public int lineNumber;
     public Map<String, Object> data;
+    /**
+     * Gateway request body prebuilt at validation (compact JSON), or null when the
+     * channel builds it at dispatch time. See PayloadPrebuilder.
+     */
+    public String payload;
 
     public String processingStatus = "PENDING";
     public String workerId;
+    /**
+     * When the current owner claimed the row, refreshed when its gateway call starts
+     * ({@link #confirmClaim}) — the row-level heartbeat the stuck-batch watchdog compares
+     * against {@code app.processing.stuck-timeout-minutes}.
+     */
+    public Instant claimedAt;
     public int retryCount = 0;
+    /**
+     * Earliest time a row rescheduled after a transient gateway failure may be
+     * claimed again; null for rows that were never retried.
+     */
+    public Instant nextAttemptAt;
+    public String lastError;
     public Instant createdAt = Instant.now();
 
     public static List<BatchData> findByBatchId(ObjectId batchId) {
@@ -25,22 +54,163 @@ public class BatchData extends PanacheMongoEntity {
     }
 
     /**
-     * Returns only rows that still need processing.
-     * COMPLETED and FAILED are terminal — they are excluded so re-runs
-     * (after a system restart) don't re-process rows that already finished.
+     * Rows of a batch read through a cursor, for batches too large to load at once.
+     * The stream must be closed.
+     */
+    public static Stream<BatchData> streamByBatchId(ObjectId batchId) {
+        return stream("batchId", batchId);
+    }
+
+    public static Stream<BatchData> streamByBatchId(ObjectId batchId, String processingStatus) {
+        return stream("batchId = ?1 and processingStatus = ?2", batchId, processingStatus);
+    }
+
+    /**
+     * The collection typed as {@code BatchData}: a bare {@code mongoCollection()} in a
+     * call chain infers the Panache base type.
+     */
+    public static MongoCollection<BatchData> collection() {
+        return mongoCollection();
+    }
+
+    /**
+     * Bulk claim: marks up to {@code size} PENDING rows of the batch (lowest line
+     * numbers first) as CLAIMED by {@code workerId} in one updateMany, then returns
+     * the rows this worker actually won. Three round trips per chunk instead of one
+     * per row; rows taken by another worker in between are simply not returned.
+     * Rows waiting in the retry lane are skipped until their {@code nextAttemptAt}.
      */
-    public static List<BatchData> findPendingByBatchId(ObjectId batchId) {
-        return list("batchId = ?1 and processingStatus in ?2",
-                batchId, List.of("PENDING", "CLAIMED"));
+    public static List<BatchData> claimChunk(ObjectId batchId, String workerId, int size) {
+        List<ObjectId> ids = new ArrayList<>(size);
+        collection().find(Filters.and(
+                        Filters.eq("batchId", batchId),
+                        Filters.eq("processingStatus", "PENDING"),
+                        due(Instant.now())))
+                .sort(Sorts.ascending("lineNumber"))
+                .projection(Projections.include("_id"))
+                .limit(size)
+                .forEach(row -> ids.add(row.id));
+        if (ids.isEmpty()) return List.of();
+
+        mongoCollection().updateMany(
+                Filters.and(Filters.in("_id", ids), Filters.eq("processingStatus", "PENDING")),
+                Updates.combine(
+                        Updates.set("processingStatus", "CLAIMED"),
+                        Updates.set("workerId", workerId),
+                        Updates.set("claimedAt", Instant.now())));
+
+        return collection().find(Filters.and(
+                        Filters.in("_id", ids),
+                        Filters.eq("workerId", workerId),
+                        Filters.eq("processingStatus", "CLAIMED")))
+                .sort(Sorts.ascending("lineNumber"))
+                .into(new ArrayList<>());
     }
 
-    public static boolean claimRow(ObjectId rowId, String workerId) {
-        // USE Parameters: This makes the code readable and ensures types are handled correctly
-        long updated = update("processingStatus = 'CLAIMED', workerId = :workerId")
-                .where("_id = :id and processingStatus = 'PENDING'",
-                        io.quarkus.panache.common.Parameters.with("workerId", workerId)
-                                .and("id", rowId));
+    /**
+     * Re-checks, right before the gateway call, that the row is still CLAIMED by
+     * {@code workerId} and restarts its claim clock. A row claimed with its chunk can
+     * wait long in memory for a permit; if the watchdog requeued it meanwhile, it may
+     * already be on its way through another claim and must not be sent twice.
+     */
+    public static boolean confirmClaim(ObjectId rowId, String workerId) {
+        return mongoCollection().updateOne(
+                Filters.and(
+                        Filters.eq("_id", rowId),
+                        Filters.eq("processingStatus", "CLAIMED"),
+                        Filters.eq("workerId", workerId)),
+                Updates.set("claimedAt", Instant.now()))
+                .getMatchedCount() > 0;
+    }
+
+    /**
+     * Puts a CLAIMED row back to PENDING for another attempt at {@code nextAttemptAt}.
+     * Only the worker holding the claim can reschedule it. {@code countAttempt} is false
+     * for rows parked without calling the gateway (open circuit breaker).
+     */
+    public static boolean scheduleRetry(ObjectId rowId, String workerId, Instant nextAttemptAt, String error,
+                                        boolean countAttempt) {
+        return mongoCollection().updateOne(
+                Filters.and(
+                        Filters.eq("_id", rowId),
+                        Filters.eq("processingStatus", "CLAIMED"),
+                        Filters.eq("workerId", workerId)),
+                Updates.combine(
+                        Updates.set("processingStatus", "PENDING"),
+                        Updates.unset("workerId"),
+                        Updates.inc("retryCount", countAttempt ? 1 : 0),
+                        Updates.set("nextAttemptAt", nextAttemptAt),
+                        Updates.set("lastError", error)))
+                .getModifiedCount() > 0;
+    }
+
+    /**
+     * Puts the batch's CLAIMED rows back to PENDING — all of them, or with
+     * {@code claimedBefore} only those claimed before that instant (rows without a
+     * claim time count as stale). Returns the number of rows requeued.
+     */
+    public static long requeueClaimed(ObjectId batchId, Instant claimedBefore) {
+        Bson filter = Filters.and(Filters.eq("batchId", batchId), Filters.eq("processingStatus", "CLAIMED"));
+        if (claimedBefore != null)
+            filter = Filters.and(filter,
+                    Filters.or(Filters.eq("claimedAt", null), Filters.lt("claimedAt", claimedBefore)));
+        return mongoCollection().updateMany(filter, Updates.combine(
+                        Updates.set("processingStatus", "PENDING"),
+                        Updates.unset("workerId")))
+                .getModifiedCount();
+    }
+
+    /**
+     * Puts the given rows, still CLAIMED by {@code workerId}, back to PENDING — rows
+     * claimed with a chunk that were never sent. Returns the number of rows requeued.
+     */
+    public static long requeueClaimed(List<ObjectId> rowIds, String workerId) {
+        return mongoCollection().updateMany(
+                        Filters.and(
+                                Filters.in("_id", rowIds),
+                                Filters.eq("processingStatus", "CLAIMED"),
+                                Filters.eq("workerId", workerId)),
+                        Updates.combine(
+                                Updates.set("processingStatus", "PENDING"),
+                                Updates.unset("workerId")))
+                .getModifiedCount();
+    }
+
+    /**
+     * Earliest {@code nextAttemptAt} among the batch's PENDING rows still waiting
+     * for a retry, or null when none is waiting.
+     */
+    public static Instant nextRetryAt(ObjectId batchId) {
+        BatchData next = collection().find(Filters.and(
+                        Filters.eq("batchId", batchId),
+                        Filters.eq("processingStatus", "PENDING"),
+                        Filters.gt("nextAttemptAt", Instant.now())))
+                .sort(Sorts.ascending("nextAttemptAt"))
+                .projection(Projections.include("nextAttemptAt"))
+                .first();
+        return next != null ? next.nextAttemptAt : null;
+    }
+
+    private static Bson due(Instant now) {
+        return Filters.or(Filters.eq("nextAttemptAt", null), Filters.lte("nextAttemptAt", now));
+    }
 
-        return updated > 0;
+    public static void ensureIndexes(@Observes StartupEvent ev) {
+        // Chunk claiming, progress counts and finalization all filter on (batchId, processingStatus)
+        mongoCollection().createIndex(
+                Indexes.compoundIndex(
+                        Indexes.ascending("batchId"),
+                        Indexes.ascending("processingStatus"),
+                        Indexes.ascending("lineNumber")),
+                new IndexOptions().background(true)
+        );
+        // Retry lane: earliest due row of a batch
+        mongoCollection().createIndex(
+                Indexes.compoundIndex(
+                        Indexes.ascending("batchId"),
+                        Indexes.ascending("processingStatus"),
+                        Indexes.ascending("nextAttemptAt")),
+                new IndexOptions().background(true)
+        );
     }
 }
@@ -54,6 +54,26 @@ public class BatchStatistics extends PanacheMongoEntity {
         return stats;
     }
 
+    /**
+     * Same as {@link #calculate(ObjectId)} but reads the batch's row counters when it
+     * has them (no batch_data scan).
+     */
+    public static BatchStatistics calculate(FileBatch batch) {
+        if (!batch.rowCounters) return calculate(batch.id);
+
+        long total = batch.rowsPending + batch.rowsCompleted + batch.rowsFailed;
+        if (total == 0) return null;
+
+        BatchStatistics stats = new BatchStatistics();
+        stats.id = batch.id;
+        stats.totalRecords = total;
+        stats.successCount = batch.rowsCompleted;
+        stats.failureCount = batch.rowsFailed;
+        stats.lastUpdatedAt = Instant.now();
+
+        return stats;
+    }
+
     void onStart(@Observes StartupEvent ev) {
         mongoCollection().createIndex(
                 Indexes.ascending("applicationId"),
@@ -1,7 +1,9 @@
 package com.transact.processor.model;
 
+import com.mongodb.client.model.Filters;
 import com.mongodb.client.model.IndexOptions;
 import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Updates;
 import com.transact.exception.ValidationError;
 import io.quarkus.mongodb.panache.PanacheMongoEntity;
 import io.quarkus.mongodb.panache.common.MongoEntity;
@@ -39,6 +41,10 @@ public class FileBatch extends PanacheMongoEntity {
     public ObjectId gridFsFileId;
     public ValidationReport validationReport;
     public Instant validationTimestamp;
+    // ── Scheduling (BatchQueue) ─────────────────────────────────────────────────
+    public Integer priority;                        // 0–9 set at validation, higher first; null → 0
+    public String valueDate;                        // yyyyMMdd from the VIR_ name or DEBIT.VALUE.DATE
+    public boolean valueDateResolved;               // valueDate looked up (it may still be null)
 
     // ── VIREMENT_SALAIRE (bulk payroll) state ────────────────────────────────
     // Billing mode chosen for this batch (NONE | FLAT | STANDARD); null → config default
@@ -48,6 +54,19 @@ public class FileBatch extends PanacheMongoEntity {
     public boolean virsalStep1Done = false;
     public String virsalStep1Ref;                   // T24 ref of the company→transit leg
     public Boolean virsalFeeCollected;              // null=n/a, true/false for the fee leg
+    // Step 1 sent but unanswered (timeout / 502 / 504): T24 may have debited the company.
+    // Never resent while set — an admin confirms or clears it (POST /{id}/virsal-step1).
+    public Instant virsalStep1Unconfirmed;
+
+    // ── Row counters ─────────────────────────────────────────────────────────
+    // Maintained with $inc by the processing engine whenever a row changes state, so
+    // progress and finalization read this document instead of counting batch_data.
+    // false on batches created before counters existed → callers fall back to count().
+    // Counters may lag (crash between the row write and the $inc) but never run ahead.
+    public boolean rowCounters = false;
+    public long rowsPending;                        // PENDING + CLAIMED
+    public long rowsCompleted;
+    public long rowsFailed;
 
     public static FileBatch findActiveDuplicate(ObjectId appId, String filename) {
         // We only want to find records that are NOT in a failed state.
@@ -66,6 +85,43 @@ public class FileBatch extends PanacheMongoEntity {
                 appId, filename, blockingStatuses).firstResult();
     }
 
+    /**
+     * Applies row-state transitions to the counters. No-op on batches without counters.
+     */
+    public static void incRowCounters(ObjectId batchId, long pending, long completed, long failed) {
+        if (pending == 0 && completed == 0 && failed == 0) return;
+        mongoCollection().updateOne(
+                Filters.and(Filters.eq("_id", batchId), Filters.eq("rowCounters", true)),
+                Updates.combine(
+                        Updates.inc("rowsPending", pending),
+                        Updates.inc("rowsCompleted", completed),
+                        Updates.inc("rowsFailed", failed)));
+    }
+
+    /**
+     * (Re)initializes the counters from authoritative batch_data counts — for batches
+     * created before counters existed, after a reprocess, or when they lagged.
+     */
+    public static void syncRowCounters(ObjectId batchId, long total, long completed, long failed) {
+        mongoCollection().updateOne(
+                Filters.eq("_id", batchId),
+                Updates.combine(
+                        Updates.set("rowCounters", true),
+                        Updates.set("rowsPending", total - completed - failed),
+                        Updates.set("rowsCompleted", completed),
+                        Updates.set("rowsFailed", failed)));
+    }
+
+    /**
+     * Progress heartbeat of a running batch: the stuck-batch watchdog only looks at
+     * PROCESSING batches whose processingTimestamp is older than its timeout.
+     */
+    public static void touchProcessing(ObjectId batchId) {
+        mongoCollection().updateOne(
+                Filters.and(Filters.eq("_id", batchId), Filters.eq("status", STATUS_PROCESSING)),
+                Updates.set("processingTimestamp", Instant.now()));
+    }
+
     public static void ensureIndexes(@Observes StartupEvent ev) {
         // General index for dashboard/filtering
         mongoCollection().createIndex(
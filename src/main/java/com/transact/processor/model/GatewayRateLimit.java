@@ -0,0 +1,38 @@
+package com.transact.processor.model;
+
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import io.quarkus.mongodb.panache.PanacheMongoEntity;
+import io.quarkus.mongodb.panache.common.MongoEntity;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.enterprise.event.Observes;
+
+import java.time.Instant;
+import java.util.Optional;
+
+/**
+ * Request-rate contract for one T24 gateway (REST client config key), optionally for one
+ * company id. A row without companyId is the gateway-wide default for companies that
+ * have no row of their own. Edited at runtime through /api/v1/admin/gateways/rate-limits.
+ */
+@MongoEntity(collection = "gateway_rate_limits")
+public class GatewayRateLimit extends PanacheMongoEntity {
+
+    public String gatewayKey;
+    public String companyId;                        // null → default for the gateway
+    public double requestsPerSecond;
+    public int burst;                               // bucket size; ≤ 0 → one second of requests
+    public boolean enabled = true;
+    public Instant lastUpdated;
+    public String updatedBy;
+
+    public static Optional<GatewayRateLimit> findByKey(String gatewayKey, String companyId) {
+        return find("gatewayKey = ?1 and companyId = ?2", gatewayKey, companyId).firstResultOptional();
+    }
+
+    public static void ensureIndexes(@Observes StartupEvent ev) {
+        mongoCollection().createIndex(
+                Indexes.compoundIndex(Indexes.ascending("gatewayKey"), Indexes.ascending("companyId")),
+                new IndexOptions().unique(true).background(true));
+    }
+}
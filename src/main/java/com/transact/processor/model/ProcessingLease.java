@@ -0,0 +1,88 @@
+package com.transact.processor.model;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import io.quarkus.mongodb.panache.PanacheMongoEntity;
+import io.quarkus.mongodb.panache.common.MongoEntity;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.enterprise.event.Observes;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Time-bounded ownership of a unit of work ("batch:&lt;id&gt;", "app:&lt;NAME&gt;") by one node.
+ * <p>
+ * A lease is held while {@code expiresAt} is in the future and renewed by the owner's
+ * heartbeat. When a node dies its leases simply expire and another node takes over.
+ */
+@MongoEntity(collection = "processing_leases")
+public class ProcessingLease extends PanacheMongoEntity {
+
+    public String key;
+    public String owner;
+    public Instant acquiredAt;
+    public Instant heartbeatAt;
+    public Instant expiresAt;
+
+    /**
+     * Takes the lease if it is free, expired or already ours. Atomic: the unique index on
+     * {@code key} turns a concurrent upsert by another node into a duplicate-key error.
+     */
+    public static boolean tryAcquire(String key, String owner, Duration ttl) {
+        Instant now = Instant.now();
+        try {
+            mongoCollection().updateOne(
+                    Filters.and(
+                            Filters.eq("key", key),
+                            Filters.or(Filters.eq("owner", owner), Filters.lt("expiresAt", now))),
+                    Updates.combine(
+                            Updates.set("owner", owner),
+                            Updates.set("acquiredAt", now),
+                            Updates.set("heartbeatAt", now),
+                            Updates.set("expiresAt", now.plus(ttl))),
+                    new UpdateOptions().upsert(true));
+            return true;
+        } catch (MongoWriteException e) {
+            if (e.getError().getCategory() == ErrorCategory.DUPLICATE_KEY) return false;
+            throw e;
+        }
+    }
+
+    /**
+     * Extends a lease we still own. False means it expired and was taken by another node.
+     */
+    public static boolean renew(String key, String owner, Duration ttl) {
+        Instant now = Instant.now();
+        return mongoCollection().updateOne(
+                Filters.and(Filters.eq("key", key), Filters.eq("owner", owner)),
+                Updates.combine(
+                        Updates.set("heartbeatAt", now),
+                        Updates.set("expiresAt", now.plus(ttl)))
+        ).getMatchedCount() > 0;
+    }
+
+    /**
+     * True while some node holds an unexpired lease on {@code key}.
+     */
+    public static boolean isHeld(String key) {
+        return mongoCollection().countDocuments(Filters.and(
+                Filters.eq("key", key), Filters.gt("expiresAt", Instant.now()))) > 0;
+    }
+
+    public static void release(String key, String owner) {
+        mongoCollection().deleteOne(Filters.and(Filters.eq("key", key), Filters.eq("owner", owner)));
+    }
+
+    public static void ensureIndexes(@Observes StartupEvent ev) {
+        mongoCollection().createIndex(
+                Indexes.ascending("key"),
+                new IndexOptions().unique(true).background(true)
+        );
+    }
+}
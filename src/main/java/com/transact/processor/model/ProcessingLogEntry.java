@@ -1,15 +1,34 @@
 package com.transact.processor.model;
 
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
 import com.mongodb.client.model.IndexOptions;
 import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
 import io.quarkus.mongodb.panache.PanacheMongoEntity;
 import io.quarkus.mongodb.panache.common.MongoEntity;
 import io.quarkus.runtime.StartupEvent;
 import jakarta.enterprise.event.Observes;
 import org.bson.types.ObjectId;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
 
 @MongoEntity(collection = "processing_logs")
 public class ProcessingLogEntry extends PanacheMongoEntity {
@@ -19,6 +38,15 @@ public class ProcessingLogEntry extends PanacheMongoEntity {
     public String message;
     public Instant timestamp;
 
+    // ── Row errors: one document per (batchId, fingerprint) ──────────────────
+    // message / samplePayload are those of the first occurrence, timestamp the last one.
+    public String fingerprint;
+    public Integer occurrences;
+    public Integer firstLine;
+    public Integer lastLine;
+    public String samplePayload;
+    public Instant firstSeen;
+
     public ProcessingLogEntry() {
         this.timestamp = Instant.now();
     }
@@ -39,17 +67,141 @@ public class ProcessingLogEntry extends PanacheMongoEntity {
                         .background(true)
                         .expireAfter(168L * 60 * 60, TimeUnit.SECONDS) // 168 h = 7 days
         );
+        // Upsert target for fingerprinted row errors
+        mongoCollection().createIndex(
+                Indexes.ascending("batchId", "fingerprint"),
+                new IndexOptions()
+                        .background(true)
+                        .unique(true)
+                        .partialFilterExpression(Filters.exists("fingerprint"))
+        );
+        // getProcessingLogs: latest entries of a batch
+        mongoCollection().createIndex(
+                Indexes.compoundIndex(Indexes.ascending("batchId"), Indexes.descending("timestamp")),
+                new IndexOptions().background(true)
+        );
+    }
+
+    /**
+     * Write-behind sink installed by ProcessingLogBuffer; null = insert synchronously.
+     */
+    private static volatile Consumer<ProcessingLogEntry> writer;
+
+    public static void writeBehind(Consumer<ProcessingLogEntry> sink) {
+        writer = sink;
     }
 
     public static void log(ObjectId batchId, String level, String message) {
-        new ProcessingLogEntry(batchId, level, message).persist();
+        submit(new ProcessingLogEntry(batchId, level, message));
     }
 
     public static void log(String level, String message) {
         log(null, level, message);
     }
 
+    /**
+     * Row-level error: rows of a batch failing with the same {@code error} (once
+     * normalized, see {@link #fingerprint}) share one document counting them.
+     */
+    public static void logRow(ObjectId batchId, String level, int lineNumber, String error,
+                              String message, String payload) {
+        ProcessingLogEntry entry = new ProcessingLogEntry(batchId, level, message);
+        entry.fingerprint = fingerprint(entry.level, error);
+        entry.occurrences = 1;
+        entry.firstLine = lineNumber;
+        entry.lastLine = lineNumber;
+        entry.samplePayload = payload;
+        entry.firstSeen = entry.timestamp;
+        submit(entry);
+    }
+
+    private static void submit(ProcessingLogEntry entry) {
+        Consumer<ProcessingLogEntry> sink = writer;
+        if (sink != null) sink.accept(entry);
+        else persistAll(List.of(entry));
+    }
+
     public void save() {
         this.persist();
     }
-}
\ No newline at end of file
+
+    // ── Fingerprint ──────────────────────────────────────────────────────────
+
+    private static final Pattern QUOTED = Pattern.compile("'[^']*'|\"[^\"]*\"");
+    private static final Pattern HEX_ID = Pattern.compile("\\b[0-9a-fA-F]{12,}\\b|\\b[0-9a-fA-F-]{36}\\b");
+    private static final Pattern NUMBER = Pattern.compile("\\d+([.,]\\d+)*");
+    private static final Pattern SPACES = Pattern.compile("\\s+");
+
+    /**
+     * Level + error text with quoted values, ids and numbers blanked out, hashed:
+     * "Account 0123 closed (ref FT2401)" and "Account 0456 closed (ref FT2402)" match.
+     */
+    static String fingerprint(String level, String error) {
+        String normalized = error == null ? "" : error.toLowerCase();
+        normalized = QUOTED.matcher(normalized).replaceAll("?");
+        normalized = HEX_ID.matcher(normalized).replaceAll("#");
+        normalized = NUMBER.matcher(normalized).replaceAll("#");
+        normalized = SPACES.matcher(normalized).replaceAll(" ").trim();
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256")
+                    .digest((level + "|" + normalized).getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(hash, 0, 12);
+        } catch (Exception e) {
+            return Integer.toHexString((level + "|" + normalized).hashCode());
+        }
+    }
+
+    // ── Writes ───────────────────────────────────────────────────────────────
+
+    /**
+     * One unordered bulk write: plain entries are inserted, fingerprinted ones merged
+     * per (batchId, fingerprint) and upserted onto the existing document.
+     */
+    public static void persistAll(List<ProcessingLogEntry> entries) {
+        List<WriteModel<ProcessingLogEntry>> writes = new ArrayList<>(entries.size());
+        Map<String, ProcessingLogEntry> merged = new LinkedHashMap<>();
+        for (ProcessingLogEntry e : entries) {
+            if (e.fingerprint == null) writes.add(new InsertOneModel<>(e));
+            else merged.merge(e.batchId + "|" + e.fingerprint, e, ProcessingLogEntry::mergeInto);
+        }
+        merged.values().forEach(e -> writes.add(upsert(e)));
+        if (writes.isEmpty()) return;
+
+        try {
+            mongoCollection().bulkWrite(writes, new BulkWriteOptions().ordered(false));
+        } catch (MongoBulkWriteException e) {
+            // Two nodes inserting the same fingerprint at once: the loser's upsert hits the
+            // unique index — run it again, it now updates the winner's document.
+            List<WriteModel<ProcessingLogEntry>> retry = new ArrayList<>();
+            for (BulkWriteError err : e.getWriteErrors()) {
+                if (err.getCode() == 11000 && writes.get(err.getIndex()) instanceof UpdateOneModel)
+                    retry.add(writes.get(err.getIndex()));
+            }
+            if (retry.size() < e.getWriteErrors().size()) throw e;
+            mongoCollection().bulkWrite(retry, new BulkWriteOptions().ordered(false));
+        }
+    }
+
+    private static ProcessingLogEntry mergeInto(ProcessingLogEntry first, ProcessingLogEntry next) {
+        first.occurrences += next.occurrences;
+        first.firstLine = Math.min(first.firstLine, next.firstLine);
+        first.lastLine = Math.max(first.lastLine, next.lastLine);
+        if (next.timestamp.isAfter(first.timestamp)) first.timestamp = next.timestamp;
+        return first;
+    }
+
+    private static UpdateOneModel<ProcessingLogEntry> upsert(ProcessingLogEntry e) {
+        return new UpdateOneModel<>(
+                Filters.and(Filters.eq("batchId", e.batchId), Filters.eq("fingerprint", e.fingerprint)),
+                Updates.combine(
+                        Updates.setOnInsert("level", e.level),
+                        Updates.setOnInsert("message", e.message),
+                        Updates.setOnInsert("samplePayload", e.samplePayload),
+                        Updates.setOnInsert("firstSeen", Date.from(e.firstSeen)),
+                        Updates.inc("occurrences", e.occurrences),
+                        Updates.min("firstLine", e.firstLine),
+                        Updates.max("lastLine", e.lastLine),
+                        Updates.max("timestamp", Date.from(e.timestamp))),
+                new UpdateOptions().upsert(true));
+    }
+}
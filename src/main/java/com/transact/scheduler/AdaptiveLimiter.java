@@ -0,0 +1,101 @@
+package com.transact.scheduler;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * AIMD concurrency limit for one gateway.
+ * <p>
+ * The in-flight limit grows by one per "round trip" ({@code +1/limit} per success)
+ * while the smoothed latency stays within {@code tolerance ×} the best latency seen,
+ * and is cut multiplicatively on a timeout, connection error or transient status (408,
+ * 429, 502-504 — not the 500 of a rejected row). The best-latency baseline slowly
+ * decays upwards so a permanently slower T24 does not pin the limit at its floor.
+ */
+public final class AdaptiveLimiter {
+
+    private static final double BACKOFF = 0.7;
+    private static final double TOLERANCE = 2.0;
+    private static final double EWMA = 0.2;
+    private static final double BASELINE_DECAY = 1.01;
+
+    private final String gatewayKey;
+    private final ReentrantLock lock = new ReentrantLock(true);
+    private final Condition released = lock.newCondition();
+
+    private final int minLimit;
+    private final int maxLimit;
+    private double limit;
+    private int inFlight;
+    private double smoothedMs = -1;
+    private double baselineMs = -1;
+    private long successes;
+    private long drops;
+
+    AdaptiveLimiter(String gatewayKey, int initialLimit, int minLimit, int maxLimit) {
+        this.gatewayKey = gatewayKey;
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.limit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+    }
+
+    void acquire() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (inFlight >= (int) limit) released.await(1, TimeUnit.SECONDS);
+            inFlight++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Releases a slot and feeds the call result into the limit.
+     *
+     * @param latencyNanos duration of the call
+     * @param dropped      true on timeout / connection error / transient status — the gateway is overloaded
+     */
+    void release(long latencyNanos, boolean dropped) {
+        lock.lock();
+        try {
+            inFlight--;
+            double ms = latencyNanos / 1_000_000.0;
+            smoothedMs = smoothedMs < 0 ? ms : smoothedMs + EWMA * (ms - smoothedMs);
+
+            if (dropped) {
+                drops++;
+                limit = Math.max(minLimit, limit * BACKOFF);
+            } else {
+                successes++;
+                baselineMs = baselineMs < 0 ? ms : Math.min(baselineMs * BASELINE_DECAY, ms);
+                // Only grow when the current limit is actually used — an idle gateway proves nothing
+                if (smoothedMs <= baselineMs * TOLERANCE && inFlight + 1 >= (int) limit / 2)
+                    limit = Math.min(maxLimit, limit + 1.0 / limit);
+                else if (smoothedMs > baselineMs * TOLERANCE)
+                    limit = Math.max(minLimit, limit - 1.0 / limit);
+            }
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    Snapshot snapshot() {
+        lock.lock();
+        try {
+            return new Snapshot(gatewayKey, (int) limit, minLimit, maxLimit, inFlight,
+                    Math.max(0, Math.round(smoothedMs)), Math.max(0, Math.round(baselineMs)),
+                    successes, drops);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Point-in-time view of a gateway limiter, served to ops by the admin API.
+     */
+    public record Snapshot(String gateway, int limit, int minLimit, int maxLimit, int inFlight,
+                           long latencyMs, long baselineLatencyMs, long successes, long drops) {
+    }
+}
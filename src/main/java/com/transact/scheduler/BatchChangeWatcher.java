@@ -0,0 +1,164 @@
+package com.transact.scheduler;
+
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+import com.transact.processor.model.Application;
+import com.transact.processor.model.FileBatch;
+import io.quarkus.arc.Arc;
+import io.quarkus.arc.ManagedContext;
+import io.quarkus.logging.Log;
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.enterprise.inject.Any;
+import jakarta.enterprise.inject.Instance;
+import jakarta.inject.Inject;
+import org.bson.BsonDocument;
+import org.bson.types.ObjectId;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.context.ManagedExecutor;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * BatchChangeWatcher — event-driven batch pickup.
+ * <p>
+ * Tails a MongoDB change stream on file_batch filtered on {@code status = VALIDATED}
+ * and starts the matching processor as soon as a batch is validated, instead of
+ * waiting for the next poll. Polling stays as a low-frequency fallback (see
+ * {@link RowDispatchEngine#poll}) and takes over at full rate whenever the stream is
+ * down — change streams need a replica set, a standalone MongoDB never goes live.
+ */
+@ApplicationScoped
+public class BatchChangeWatcher {
+
+    @ConfigProperty(name = "app.processing.change-stream.enabled", defaultValue = "true")
+    boolean enabled;
+
+    @ConfigProperty(name = "app.processing.change-stream.retry-delay", defaultValue = "60s")
+    Duration retryDelay;
+
+    @Inject
+    RowDispatchEngine engine;
+    @Inject
+    ManagedExecutor managedExecutor;
+    @Inject
+    @Any
+    Instance<GatewayChannel<?, ?>> channels;
+
+    private final Map<ObjectId, String> appNames = new ConcurrentHashMap<>();
+    private volatile boolean live;
+    private volatile boolean stopping;
+    private volatile MongoChangeStreamCursor<ChangeStreamDocument<FileBatch>> cursor;
+    private BsonDocument resumeToken;
+
+    void onStart(@Observes StartupEvent ev) {
+        if (!enabled) {
+            Log.info("[WATCH] file_batch change stream disabled — polling only");
+            return;
+        }
+        Thread t = new Thread(this::watchLoop, "file-batch-watcher");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    void onStop(@Observes ShutdownEvent ev) {
+        stopping = true;
+        var c = cursor;
+        if (c != null) {
+            try {
+                c.close();
+            } catch (Exception ignored) {
+            }
+        }
+    }
+
+    /**
+     * True while the change stream is open — the engine then relaxes polling.
+     */
+    public boolean isLive() {
+        return live;
+    }
+
+    // ── Stream loop ───────────────────────────────────────────────────────────
+
+    private void watchLoop() {
+        while (!stopping) {
+            try {
+                MongoCollection<FileBatch> batches = FileBatch.mongoCollection();
+                var stream = batches
+                        .watch(List.of(Aggregates.match(Filters.and(
+                                Filters.in("operationType", "insert", "update", "replace"),
+                                Filters.eq("fullDocument.status", FileBatch.STATUS_VALIDATED)))))
+                        .fullDocument(FullDocument.UPDATE_LOOKUP);
+                if (resumeToken != null) stream = stream.resumeAfter(resumeToken);
+
+                try (var c = stream.cursor()) {
+                    cursor = c;
+                    live = true;
+                    Log.info("[WATCH] file_batch change stream open — VALIDATED batches dispatched on event");
+                    while (!stopping) {
+                        ChangeStreamDocument<FileBatch> change = c.next();
+                        resumeToken = change.getResumeToken();
+                        if (change.getFullDocument() != null) dispatch(change.getFullDocument());
+                    }
+                }
+            } catch (Exception e) {
+                if (stopping) break;
+                live = false;
+                // A stale resume token would fail forever — restart from "now"; the fallback
+                // poll picks up anything validated meanwhile.
+                resumeToken = null;
+                Log.warnf("[WATCH] file_batch change stream unavailable (%s) — polling at full rate, retry in %s",
+                        e.getMessage(), retryDelay);
+                try {
+                    Thread.sleep(retryDelay.toMillis());
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            } finally {
+                live = false;
+                cursor = null;
+            }
+        }
+    }
+
+    /**
+     * Starts the run of the channel owning the batch's application on the managed executor.
+     * Also used by {@link StuckBatchWatchdog} to restart a stalled batch.
+     */
+    void dispatch(FileBatch batch) {
+        String appName = batch.applicationId == null ? null
+                : appNames.computeIfAbsent(batch.applicationId, id -> {
+            Application app = Application.findById(id);
+            return app != null ? app.name : null;
+        });
+        if (appName == null) return;
+
+        for (GatewayChannel<?, ?> channel : channels) {
+            if (!appName.equals(channel.featureKey())) continue;
+            Log.debugf("[WATCH] [%s] validated → %s", batch.id, channel.tag());
+            managedExecutor.runAsync(() -> {
+                ManagedContext requestContext = Arc.container().requestContext();
+                requestContext.activate();
+                try {
+                    engine.run(channel);
+                } catch (Exception e) {
+                    Log.errorf(e, "[WATCH] [%s] %s event-driven run failed", batch.id, channel.tag());
+                } finally {
+                    requestContext.terminate();
+                }
+            });
+            return;
+        }
+    }
+}
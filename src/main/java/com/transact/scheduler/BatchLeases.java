@@ -0,0 +1,117 @@
+package com.transact.scheduler;
+
+import com.transact.processor.model.ProcessingLease;
+import io.quarkus.logging.Log;
+import io.quarkus.scheduler.Scheduled;
+import jakarta.enterprise.context.ApplicationScoped;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.net.InetAddress;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static io.quarkus.scheduler.Scheduled.ConcurrentExecution.SKIP;
+
+/**
+ * BatchLeases — lets several instances share the processing load.
+ * <p>
+ * Before touching a batch the engine takes the lease {@code batch:<id>}; other nodes
+ * skip it while the lease is alive. Leases held by this node are renewed by a heartbeat
+ * every {@code app.processing.lease.heartbeat}; a node that stops heart-beating loses
+ * its leases after {@code app.processing.lease.ttl} and its batches are resumed
+ * elsewhere (CLAIMED rows → PENDING, exactly as after a restart).
+ */
+@ApplicationScoped
+public class BatchLeases {
+
+    @ConfigProperty(name = "app.processing.lease.ttl", defaultValue = "60s")
+    Duration ttl;
+
+    @ConfigProperty(name = "app.processing.node-id")
+    Optional<String> configuredNodeId;
+
+    private volatile String nodeId;
+
+    /**
+     * Leases held by this node → still valid (false once a heartbeat found it taken).
+     */
+    private final Map<String, Boolean> held = new ConcurrentHashMap<>();
+
+    public static String batchKey(Object batchId) {
+        return "batch:" + batchId;
+    }
+
+    public static String appKey(String featureKey) {
+        return "app:" + featureKey;
+    }
+
+    /**
+     * Stable id of this instance: {@code app.processing.node-id}, or host name + random suffix.
+     */
+    public String nodeId() {
+        if (nodeId == null) {
+            synchronized (this) {
+                if (nodeId == null) nodeId = configuredNodeId.filter(s -> !s.isBlank()).orElseGet(() -> {
+                    String host;
+                    try {
+                        host = InetAddress.getLocalHost().getHostName();
+                    } catch (Exception e) {
+                        host = "node";
+                    }
+                    return host + "-" + UUID.randomUUID().toString().substring(0, 8);
+                });
+            }
+        }
+        return nodeId;
+    }
+
+    public boolean acquire(String key) {
+        if (!ProcessingLease.tryAcquire(key, nodeId(), ttl)) return false;
+        held.put(key, Boolean.TRUE);
+        return true;
+    }
+
+    /**
+     * True while this node still owns the lease (as of the last heartbeat).
+     */
+    public boolean holds(String key) {
+        return Boolean.TRUE.equals(held.get(key));
+    }
+
+    /**
+     * True while any node (this one included) holds the lease.
+     */
+    public boolean isHeldAnywhere(String key) {
+        return ProcessingLease.isHeld(key);
+    }
+
+    public void release(String key) {
+        held.remove(key);
+        try {
+            ProcessingLease.release(key, nodeId());
+        } catch (Exception e) {
+            // Expires on its own
+            Log.warnf("[LEASE] release of %s failed: %s", key, e.getMessage());
+        }
+    }
+
+    @Scheduled(every = "${app.processing.lease.heartbeat:15s}", identity = "lease-heartbeat",
+            concurrentExecution = SKIP)
+    void heartbeat() {
+        held.forEach((key, valid) -> {
+            if (!valid) return;
+            try {
+                if (!ProcessingLease.renew(key, nodeId(), ttl)) {
+                    held.put(key, Boolean.FALSE);
+                    Log.warnf("[LEASE] %s lost by %s — lease expired and was taken over", key, nodeId());
+                }
+            } catch (Exception e) {
+                // Transient Mongo error: keep working, the next beat retries before the TTL runs out
+                Log.warnf("[LEASE] heartbeat for %s failed: %s", key, e.getMessage());
+            }
+        });
+    }
+}
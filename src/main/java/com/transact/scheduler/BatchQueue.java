@@ -0,0 +1,144 @@
+package com.transact.scheduler;
+
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Updates;
+import com.transact.processor.model.Application;
+import com.transact.processor.model.BatchData;
+import com.transact.processor.model.FileBatch;
+import io.quarkus.logging.Log;
+import io.quarkus.panache.common.Sort;
+import jakarta.enterprise.context.ApplicationScoped;
+import org.bson.types.ObjectId;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * BatchQueue — the order in which runnable batches are started.
+ * <ol>
+ *   <li>starvation guard: batches waiting longer than {@code app.processing.priority.max-wait}
+ *       since validation go first, oldest first</li>
+ *   <li>explicit priority set at validation (higher first, default 0)</li>
+ *   <li>value date (earliest first; VIR_ file name date or DEBIT.VALUE.DATE of the first row)</li>
+ *   <li>remaining rows (smaller first), then validation time</li>
+ * </ol>
+ */
+@ApplicationScoped
+public class BatchQueue {
+
+    public static final int MIN_PRIORITY = 0;
+    public static final int MAX_PRIORITY = 9;
+
+    private static final Pattern VIR_FILENAME =
+            Pattern.compile("^VIR_[A-Za-z0-9]+_(\\d{8})_\\d{3}\\.csv$", Pattern.CASE_INSENSITIVE);
+    private static final Pattern YYYYMMDD = Pattern.compile("\\d{8}");
+
+    @ConfigProperty(name = "app.processing.priority.max-wait", defaultValue = "2h")
+    Duration maxWait;
+
+    /**
+     * Sorts {@code batches} in start order. Value dates of batches validated before they
+     * were recorded are derived and stored once — "none found" included, so a batch
+     * without one does not re-read its first row on every sort.
+     */
+    public List<FileBatch> order(List<FileBatch> batches) {
+        for (FileBatch b : batches) {
+            if (b.valueDate == null && !b.valueDateResolved) {
+                b.valueDate = valueDateOf(b);
+                b.valueDateResolved = true;
+                FileBatch.mongoCollection().updateOne(Filters.eq("_id", b.id), Updates.combine(
+                        Updates.set("valueDate", b.valueDate),
+                        Updates.set("valueDateResolved", true)));
+            }
+        }
+        List<FileBatch> ordered = new ArrayList<>(batches);
+        ordered.sort(comparator(Instant.now()));
+        return ordered;
+    }
+
+    private Comparator<FileBatch> comparator(Instant now) {
+        Instant agedBefore = now.minus(maxWait);
+        return Comparator
+                .comparing((FileBatch b) -> !isAged(b, agedBefore))
+                .thenComparing(b -> isAged(b, agedBefore) ? waitingSince(b) : Instant.EPOCH)
+                .thenComparing(b -> -priorityOf(b))
+                .thenComparing(b -> b.valueDate, Comparator.nullsLast(Comparator.naturalOrder()))
+                .thenComparing(b -> b.rowCounters ? b.rowsPending : Long.MAX_VALUE)
+                .thenComparing(BatchQueue::waitingSince);
+    }
+
+    private static boolean isAged(FileBatch b, Instant agedBefore) {
+        return waitingSince(b).isBefore(agedBefore);
+    }
+
+    private static Instant waitingSince(FileBatch b) {
+        return b.validationTimestamp != null ? b.validationTimestamp : b.uploadTimestamp;
+    }
+
+    public static int priorityOf(FileBatch b) {
+        return b.priority != null ? b.priority : MIN_PRIORITY;
+    }
+
+    /**
+     * Value date (yyyyMMdd) of a batch: the date in a VIR_ file name, otherwise
+     * DEBIT.VALUE.DATE of its first row; null when neither is present.
+     */
+    public static String valueDateOf(FileBatch batch) {
+        if (batch.originalFilename != null) {
+            Matcher m = VIR_FILENAME.matcher(batch.originalFilename);
+            if (m.matches()) return m.group(1);
+        }
+        try {
+            BatchData first = BatchData.find("batchId", Sort.ascending("lineNumber"), batch.id).firstResult();
+            Object v = first != null && first.data != null ? first.data.get("DEBIT.VALUE.DATE") : null;
+            String date = v != null ? v.toString().trim() : null;
+            return date != null && YYYYMMDD.matcher(date).matches() ? date : null;
+        } catch (Exception e) {
+            Log.warnf("[%s] value date lookup failed: %s", batch.id, e.getMessage());
+            return null;
+        }
+    }
+
+    // ── Inspection ────────────────────────────────────────────────────────────
+
+    /**
+     * Every VALIDATED / PROCESSING batch, per application, in the order it would be started.
+     */
+    public List<Entry> snapshot() {
+        List<FileBatch> runnable = FileBatch.list("status in ?1",
+                List.of(FileBatch.STATUS_VALIDATED, FileBatch.STATUS_PROCESSING));
+        Map<ObjectId, List<FileBatch>> byApp = new HashMap<>();
+        for (FileBatch b : runnable) byApp.computeIfAbsent(b.applicationId, k -> new ArrayList<>()).add(b);
+
+        Instant now = Instant.now();
+        Instant agedBefore = now.minus(maxWait);
+        List<Entry> out = new ArrayList<>();
+        byApp.forEach((appId, batches) -> {
+            Application app = Application.findById(appId);
+            String appName = app != null ? app.name : String.valueOf(appId);
+            List<FileBatch> ordered = order(batches);
+            for (int i = 0; i < ordered.size(); i++) {
+                FileBatch b = ordered.get(i);
+                out.add(new Entry(appName, i + 1, b.id.toHexString(), b.originalFilename, b.status,
+                        priorityOf(b), b.valueDate, b.rowCounters ? b.rowsPending : null,
+                        waitingSince(b), Duration.between(waitingSince(b), now).toMinutes(),
+                        isAged(b, agedBefore)));
+            }
+        });
+        out.sort(Comparator.comparing(Entry::application).thenComparing(Entry::rank));
+        return out;
+    }
+
+    public record Entry(String application, int rank, String batchId, String filename, String status,
+                        int priority, String valueDate, Long rowsPending, Instant waitingSince,
+                        long waitingMinutes, boolean aged) {
+    }
+}
@@ -0,0 +1,48 @@
+package com.transact.scheduler;
+
+import com.transact.processor.model.BatchData;
+import com.transact.processor.model.FileBatch;
+import org.bson.types.ObjectId;
+
+/**
+ * Immutable context of one processing run over one batch, shared by
+ * {@link RowDispatchEngine} and the {@link GatewayChannel} it drives.
+ */
+public final class BatchRun {
+
+    public final ObjectId batchId;
+    public final FileBatch batch;
+    /**
+     * ISO country of the validator — drives company id and gateway routing.
+     */
+    public final String country;
+    /**
+     * Temenos company id resolved from {@link #country}.
+     */
+    public final String companyId;
+    /**
+     * Owner id written on every row claimed during this run.
+     */
+    public final String workerId;
+    /**
+     * Fair-share tenant of the batch: uploader's {@code COUNTRY-DEPARTMENT}
+     * (or country alone when the uploader has no department).
+     */
+    public final String tenant;
+
+    BatchRun(FileBatch batch, String country, String companyId, String workerId, String tenant) {
+        this.batchId = batch.id;
+        this.batch = batch;
+        this.country = country;
+        this.companyId = companyId;
+        this.workerId = workerId;
+        this.tenant = tenant;
+    }
+
+    /**
+     * Log context for a row, e.g. {@code [65f…|Row:12]}.
+     */
+    public String ctx(BatchData row) {
+        return String.format("[%s|Row:%d]", batchId, row.lineNumber);
+    }
+}
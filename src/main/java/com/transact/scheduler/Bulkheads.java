@@ -0,0 +1,47 @@
+package com.transact.scheduler;
+
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import org.eclipse.microprofile.config.ConfigProvider;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.context.ManagedExecutor;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Bulkheads — one bounded executor per T24 gateway (REST client config key) plus one
+ * for e-mail, so a gateway that stops answering only ties up its own threads and never
+ * the other gateways' rows, the completion e-mails or the default ManagedExecutor.
+ * <p>
+ * Size: {@code app.processing.bulkhead.<name>.max-threads}, falling back to
+ * {@code app.processing.bulkhead.max-threads}. Extra tasks queue.
+ */
+@ApplicationScoped
+public class Bulkheads {
+
+    public static final String EMAIL = "email";
+
+    @ConfigProperty(name = "app.processing.bulkhead.max-threads", defaultValue = "32")
+    int defaultMaxThreads;
+
+    private final Map<String, ManagedExecutor> executors = new ConcurrentHashMap<>();
+
+    public ManagedExecutor executor(String name) {
+        return executors.computeIfAbsent(name, k -> ManagedExecutor.builder()
+                .maxAsync(maxThreads(k))
+                .maxQueued(-1)
+                .build());
+    }
+
+    private int maxThreads(String name) {
+        return Math.max(1, ConfigProvider.getConfig()
+                .getOptionalValue("app.processing.bulkhead." + name + ".max-threads", Integer.class)
+                .orElse(defaultMaxThreads));
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executors.values().forEach(ManagedExecutor::shutdown);
+    }
+}
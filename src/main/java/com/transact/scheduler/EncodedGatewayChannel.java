@@ -0,0 +1,28 @@
+package com.transact.scheduler;
+
+import com.transact.processor.model.BatchData;
+import jakarta.ws.rs.core.Response;
+
+/**
+ * A {@link GatewayChannel} that can send a payload already encoded as JSON. The engine
+ * then encodes each payload exactly once and shares the bytes between the wire, the
+ * DEBUG request log and the failure log; payloads can also be prebuilt when the batch
+ * is validated ({@link #prebuild}).
+ */
+public interface EncodedGatewayChannel<S, P> extends GatewayChannel<S, P> {
+
+    /**
+     * Payload of a row that depends on the row alone, computed once when the batch is
+     * validated and stored as compact JSON on {@link BatchData#payload}.
+     * {@code null} (default) = the payload is built at dispatch time by {@link #toPayload}.
+     */
+    default P prebuild(BatchData row) {
+        return null;
+    }
+
+    /**
+     * Sends JSON bytes as is — a payload stored by {@link #prebuild}, or one encoded at
+     * dispatch time. No mapping, no re-serialization.
+     */
+    Response sendEncoded(byte[] json, String correlationId, BatchRun run, S state);
+}
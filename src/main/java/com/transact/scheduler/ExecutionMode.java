@@ -0,0 +1,50 @@
+package com.transact.scheduler;
+
+import io.quarkus.logging.Log;
+
+import java.util.Locale;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * How the rows of a batch are run — selected per application with
+ * {@code app.processing.execution-mode.<APPLICATION_NAME>}.
+ */
+public enum ExecutionMode {
+
+    /**
+     * Rows run on the ManagedExecutor, at most {@link GatewayChannel#maxThreads()} per batch.
+     */
+    MANAGED,
+
+    /**
+     * One virtual thread per row; concurrency is bounded only by the gateway permit
+     * budget ({@link GatewayPermits}). A thread blocked on a 90 s T24 read costs a few KB.
+     * Needs a JDK 21+ runtime — startup fails when it is configured on an older JVM.
+     */
+    VIRTUAL;
+
+    static ExecutionMode parse(String value) {
+        if (value == null || value.isBlank()) return MANAGED;
+        try {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            Log.warnf("Unknown execution mode '%s' — using MANAGED", value);
+            return MANAGED;
+        }
+    }
+
+    /**
+     * {@code Executors.newVirtualThreadPerTaskExecutor()} when the running JVM has it.
+     * Looked up reflectively: the project still compiles with {@code --release 17}.
+     */
+    static Optional<ExecutorService> newVirtualThreadExecutor() {
+        try {
+            return Optional.of((ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor").invoke(null));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return Optional.empty();
+        }
+    }
+}
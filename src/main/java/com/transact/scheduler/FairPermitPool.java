@@ -0,0 +1,110 @@
+package com.transact.scheduler;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * FairPermitPool — in-flight row permits of one application, shared by every batch
+ * running concurrently and split across tenants (country + department of the uploader)
+ * by weight.
+ * <p>
+ * A free permit always goes to the waiting tenant with the lowest
+ * {@code inFlight / weight}, so a tenant with a large batch only keeps the slots the
+ * others do not claim (weighted max-min fairness on concurrency). A tenant alone in
+ * the pool gets all of it.
+ */
+public final class FairPermitPool {
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final Map<String, Tenant> tenants = new HashMap<>();
+    private int capacity;
+    private int inUse;
+
+    private static final class Tenant {
+        double weight = 1.0;
+        int inFlight;
+        int waiting;
+
+        double share() {
+            return inFlight / weight;
+        }
+    }
+
+    public FairPermitPool(int capacity) {
+        this.capacity = Math.max(1, capacity);
+    }
+
+    /**
+     * Resizes the pool (e.g. a changed max-threads or gateway budget); waiters re-check.
+     */
+    public void setCapacity(int capacity) {
+        lock.lock();
+        try {
+            this.capacity = Math.max(1, capacity);
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void acquire(String tenant, double weight) throws InterruptedException {
+        lock.lock();
+        try {
+            Tenant t = tenants.computeIfAbsent(tenant, k -> new Tenant());
+            t.weight = weight > 0 ? weight : 1.0;
+            t.waiting++;
+            try {
+                while (inUse >= capacity || !hasLowestShare(t)) changed.await();
+            } catch (InterruptedException e) {
+                changed.signalAll();   // we may have been the one holding the others back
+                throw e;
+            } finally {
+                t.waiting--;
+            }
+            t.inFlight++;
+            inUse++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void release(String tenant) {
+        lock.lock();
+        try {
+            Tenant t = tenants.get(tenant);
+            if (t == null) return;
+            t.inFlight--;
+            inUse--;
+            if (t.inFlight == 0 && t.waiting == 0) tenants.remove(tenant);
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean hasLowestShare(Tenant candidate) {
+        double share = candidate.share();
+        for (Tenant t : tenants.values()) {
+            if (t.waiting > 0 && t.share() < share) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Tenant → rows in flight, for the ops endpoint.
+     */
+    public Map<String, Integer> inFlightByTenant() {
+        lock.lock();
+        try {
+            Map<String, Integer> out = new TreeMap<>();
+            tenants.forEach((k, t) -> out.put(k, t.inFlight));
+            return out;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.transact.scheduler;
+
+import com.transact.processor.model.ProcessingLogEntry;
+import io.quarkus.logging.Log;
+import jakarta.enterprise.context.ApplicationScoped;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * GatewayBreakers — one circuit breaker per T24 gateway (REST client config key).
+ * <p>
+ * After {@code app.processing.breaker.failure-threshold} consecutive "gateway down"
+ * replies (no reply at all, 502, 503, 504) the breaker opens: calls fail fast for
+ * {@code app.processing.breaker.open-duration} and the engine parks their rows in the
+ * retry lane instead of letting each one wait out the connect + read timeouts. Then a
+ * single probe call is let through (half-open); its result closes or re-opens the breaker.
+ * Results of calls let through before the breaker last opened are ignored: a slow call
+ * that started while it was closed cannot close it early.
+ */
+@ApplicationScoped
+public class GatewayBreakers {
+
+    public enum State {CLOSED, OPEN, HALF_OPEN}
+
+    @ConfigProperty(name = "app.processing.breaker.failure-threshold", defaultValue = "5")
+    int failureThreshold;
+
+    @ConfigProperty(name = "app.processing.breaker.open-duration", defaultValue = "30s")
+    Duration openDuration;
+
+    private final Map<String, Breaker> breakers = new ConcurrentHashMap<>();
+
+    private static final class Breaker {
+        State state = State.CLOSED;
+        int consecutiveFailures;
+        Instant openUntil;
+        boolean probeInFlight;
+        long opened;
+    }
+
+    /**
+     * A call let through by {@link #allow}: the half-open probe, or a call made while the
+     * breaker was closed after its {@code generation}-th opening.
+     */
+    public record Ticket(String gatewayKey, long generation, boolean probe) {
+    }
+
+    /**
+     * The ticket of a call that may go ahead, or null when the breaker is open. Every
+     * ticket must be handed back to {@link #record}.
+     */
+    public Ticket allow(String gatewayKey) {
+        Breaker b = breaker(gatewayKey);
+        synchronized (b) {
+            switch (b.state) {
+                case CLOSED:
+                    return new Ticket(gatewayKey, b.opened, false);
+                case OPEN:
+                    if (Instant.now().isBefore(b.openUntil)) return null;
+                    b.state = State.HALF_OPEN;
+                    b.probeInFlight = true;
+                    Log.infof("[BREAKER] %s half-open — probing", gatewayKey);
+                    return new Ticket(gatewayKey, b.opened, true);
+                default:
+                    if (b.probeInFlight) return null;
+                    b.probeInFlight = true;
+                    return new Ticket(gatewayKey, b.opened, true);
+            }
+        }
+    }
+
+    /**
+     * Result of an allowed call: {@code down} = the gateway did not answer usefully,
+     * null = no verdict (e.g. interrupted before the call). While the breaker is not
+     * closed only the probe's result counts.
+     */
+    public void record(Ticket ticket, Boolean down) {
+        String gatewayKey = ticket.gatewayKey();
+        Breaker b = breaker(gatewayKey);
+        synchronized (b) {
+            if (ticket.probe()) {
+                if (b.state != State.HALF_OPEN || ticket.generation() != b.opened) return;
+                b.probeInFlight = false;
+            } else if (b.state != State.CLOSED || ticket.generation() != b.opened) {
+                return;   // started before the breaker last opened
+            }
+            if (down == null) return;
+            if (!down) {
+                if (b.state != State.CLOSED) {
+                    Log.infof("[BREAKER] %s closed", gatewayKey);
+                    ProcessingLogEntry.log("INFO", "Passerelle " + gatewayKey + " rétablie — circuit refermé");
+                }
+                b.state = State.CLOSED;
+                b.consecutiveFailures = 0;
+                return;
+            }
+            b.consecutiveFailures++;
+            if (b.state == State.HALF_OPEN || b.consecutiveFailures >= failureThreshold) {
+                boolean wasClosed = b.state == State.CLOSED;
+                b.state = State.OPEN;
+                b.openUntil = Instant.now().plus(openDuration);
+                b.opened++;
+                if (wasClosed) {
+                    Log.warnf("[BREAKER] %s open after %d failures — failing fast until %s",
+                            gatewayKey, b.consecutiveFailures, b.openUntil);
+                    ProcessingLogEntry.log("WARN", String.format(
+                            "Passerelle %s indisponible (%d échecs consécutifs) — circuit ouvert, lignes mises en attente",
+                            gatewayKey, b.consecutiveFailures));
+                }
+            }
+        }
+    }
+
+    /**
+     * When an open breaker lets the next probe through (now if it is not open).
+     */
+    public Instant retryAt(String gatewayKey) {
+        Breaker b = breaker(gatewayKey);
+        synchronized (b) {
+            return b.state == State.OPEN ? b.openUntil : Instant.now();
+        }
+    }
+
+    private Breaker breaker(String gatewayKey) {
+        return breakers.computeIfAbsent(gatewayKey, k -> new Breaker());
+    }
+
+    public List<Snapshot> snapshots() {
+        List<Snapshot> out = new ArrayList<>();
+        breakers.forEach((key, b) -> {
+            synchronized (b) {
+                out.add(new Snapshot(key, b.state, b.consecutiveFailures,
+                        b.state == State.OPEN ? b.openUntil : null, b.opened));
+            }
+        });
+        out.sort((x, y) -> x.gatewayKey().compareTo(y.gatewayKey()));
+        return out;
+    }
+
+    public record Snapshot(String gatewayKey, State state, int consecutiveFailures, Instant openUntil,
+                           long timesOpened) {
+    }
+}
@@ -0,0 +1,146 @@
+package com.transact.scheduler;
+
+import com.api.client.ProcessingResponse;
+import com.transact.processor.model.BatchData;
+import jakarta.ws.rs.core.Response;
+
+/**
+ * GatewayChannel — the application-specific half of a row processor.
+ * <p>
+ * {@link RowDispatchEngine} owns everything that is common to every T24 application
+ * (batch pickup, crash recovery, row claiming, concurrency, outcome write-back,
+ * finalization, completion email). A channel only supplies what differs:
+ * <ul>
+ *   <li>how a batch is prepared ({@link #open}) — country routing, file-name parsing…</li>
+ *   <li>how a row is mapped to the outbound payload ({@link #toPayload})</li>
+ *   <li>which gateway the payload is sent to ({@link #send})</li>
+ * </ul>
+ *
+ * @param <S> per-batch state resolved once by {@link #open} and handed back on every call
+ * @param <P> outbound payload type
+ */
+public interface GatewayChannel<S, P> {
+
+    /**
+     * Application name — also the {@link com.transact.processor.model.AppFeatureConfig} key.
+     */
+    String featureKey();
+
+    /**
+     * Short tag used as the log prefix (e.g. {@code FT}, {@code SICA}).
+     */
+    String tag();
+
+    /**
+     * Maximum concurrent gateway calls per batch.
+     */
+    int maxThreads();
+
+    /**
+     * REST client config key of the gateway this channel calls (e.g. {@code funds-transfer-api}).
+     * Keys the gateway permit budget.
+     */
+    String gatewayKey();
+
+    /**
+     * Gateway of one payload, for channels that route between gateways.
+     */
+    default String gatewayKey(P payload, S state) {
+        return gatewayKey();
+    }
+
+    /**
+     * Gateway the rows of a batch mostly go to — selects the {@link Bulkheads} executor
+     * its rows run on in MANAGED mode.
+     */
+    default String batchGatewayKey(S state) {
+        return gatewayKey();
+    }
+
+    /**
+     * True when two batches of this application must never run at the same time, even
+     * on different nodes. The engine then holds an application-wide lease for the run.
+     */
+    default boolean serialBatches() {
+        return false;
+    }
+
+    /**
+     * Resolves the channel's per-batch state before the batch is claimed.
+     * Returning {@code null} leaves the batch untouched (the channel logs why, or
+     * fails it through {@link RowDispatchEngine#failBatch}). Channels without
+     * per-batch state use {@code S = BatchRun} and return the run itself.
+     */
+    S open(BatchRun run);
+
+    /**
+     * Runs once the batch is PROCESSING, before any row is dispatched.
+     * Returning {@code false} stops the run — rows are left as they are.
+     */
+    default boolean beforeRows(BatchRun run, S state) {
+        return true;
+    }
+
+    /**
+     * Maps one row to the outbound payload.
+     *
+     * @throws RowRejectedException if the row cannot be sent at all (the row is failed with its message)
+     */
+    P toPayload(BatchData row, BatchRun run, S state);
+
+    /**
+     * Performs the gateway call. A {@link jakarta.ws.rs.WebApplicationException} is
+     * unwrapped by the engine, so implementations simply delegate to the REST client.
+     */
+    Response send(P payload, String correlationId, BatchRun run, S state);
+
+    /**
+     * Per-row correlation id, sent as the {@code uniqueIdentifier} header.
+     */
+    default String correlationId(BatchData row, BatchRun run, S state) {
+        return run.batchId + "-" + row.lineNumber;
+    }
+
+    /**
+     * The object written to the failure log for this payload (defaults to the payload itself).
+     */
+    default Object loggable(P payload) {
+        return payload;
+    }
+
+    /**
+     * Human-readable gateway name used in "no response" / "empty body" failures.
+     */
+    default String gatewayName() {
+        return "T24";
+    }
+
+    /**
+     * Error message for a non-successful gateway reply.
+     */
+    default String describeError(ProcessingResponse res, int httpStatus) {
+        String msg = res.getErrorMessage();
+        return msg != null ? msg : "HTTP " + httpStatus;
+    }
+
+    /**
+     * True when a rejected call means the operation was already applied
+     * (idempotent replay) and the row must be counted as a success.
+     */
+    default boolean isReplay(String errorMessage) {
+        return errorMessage != null && errorMessage.contains("already Exists");
+    }
+
+    /**
+     * Sees every gateway reply before it is interpreted (tracing hook);
+     * {@code reply} is null when the body was empty.
+     */
+    default void onReply(String correlationId, int httpStatus, ProcessingResponse reply) {
+    }
+
+    /**
+     * Called after the batch reached its final status (reconciliation, extra logs…).
+     */
+    default void afterFinalize(BatchRun run, S state, String status) {
+    }
+}
@@ -0,0 +1,75 @@
+package com.transact.scheduler;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import org.eclipse.microprofile.config.ConfigProvider;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Node-wide in-flight limit per T24 gateway (REST client config key), shared by every
+ * batch and application calling that gateway. Every {@link RowDispatchEngine#exchange}
+ * holds one permit for the duration of the HTTP call.
+ * <p>
+ * The limit is adaptive ({@link AdaptiveLimiter}): it starts at
+ * {@code app.processing.gateway-limit.initial}, grows while T24 latency stays flat and
+ * shrinks on timeouts / transient statuses. It never exceeds the configured budget
+ * {@code app.processing.gateway-permits.<config-key>} (fallback
+ * {@code app.processing.gateway-permits}) nor goes below
+ * {@code app.processing.gateway-limit.min}.
+ */
+@ApplicationScoped
+public class GatewayPermits {
+
+    @ConfigProperty(name = "app.processing.gateway-permits", defaultValue = "64")
+    int defaultBudget;
+
+    @ConfigProperty(name = "app.processing.gateway-limit.initial", defaultValue = "4")
+    int initialLimit;
+
+    @ConfigProperty(name = "app.processing.gateway-limit.min", defaultValue = "1")
+    int minLimit;
+
+    private final Map<String, AdaptiveLimiter> limiters = new ConcurrentHashMap<>();
+
+    public void acquire(String gatewayKey) throws InterruptedException {
+        limiter(gatewayKey).acquire();
+    }
+
+    /**
+     * Returns the permit and feeds the call result into the gateway's limit.
+     *
+     * @param dropped true when the call timed out, failed to connect or got a transient status
+     */
+    public void release(String gatewayKey, long latencyNanos, boolean dropped) {
+        limiter(gatewayKey).release(latencyNanos, dropped);
+    }
+
+    /**
+     * Configured budget (upper bound of the adaptive limit) of the gateway.
+     */
+    public int budget(String gatewayKey) {
+        int budget = ConfigProvider.getConfig()
+                .getOptionalValue("app.processing.gateway-permits." + gatewayKey, Integer.class)
+                .orElse(defaultBudget);
+        return Math.max(1, budget);
+    }
+
+    /**
+     * Current limit, latency and counters of every gateway called since startup.
+     */
+    public List<AdaptiveLimiter.Snapshot> snapshots() {
+        return limiters.values().stream()
+                .map(AdaptiveLimiter::snapshot)
+                .sorted(Comparator.comparing(AdaptiveLimiter.Snapshot::gateway))
+                .toList();
+    }
+
+    private AdaptiveLimiter limiter(String gatewayKey) {
+        return limiters.computeIfAbsent(gatewayKey,
+                k -> new AdaptiveLimiter(k, initialLimit, minLimit, budget(k)));
+    }
+}
@@ -0,0 +1,107 @@
+package com.transact.scheduler;
+
+import com.transact.processor.model.GatewayRateLimit;
+import io.quarkus.logging.Log;
+import io.quarkus.scheduler.Scheduled;
+import jakarta.enterprise.context.ApplicationScoped;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static io.quarkus.scheduler.Scheduled.ConcurrentExecution.SKIP;
+
+/**
+ * GatewayRateLimiter — request-rate cap per T24 gateway and company id.
+ * <p>
+ * Limits live in {@link GatewayRateLimit} (gateway_rate_limits) and are reloaded every
+ * {@code app.processing.rate-limit.refresh}, or at once after an admin edit on this node.
+ * Each (gateway, companyId) pair gets its own {@link TokenBucket}; a company without a
+ * row of its own uses the gateway default. Gateways without any row are not limited.
+ * <p>
+ * Buckets are per node: with several instances, configure the share of the contract
+ * each node may use.
+ */
+@ApplicationScoped
+public class GatewayRateLimiter {
+
+    private volatile Map<String, GatewayRateLimit> limits;
+    private final Map<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+
+    /**
+     * Blocks until a token for (gateway, companyId) is available.
+     *
+     * @return nanoseconds spent waiting (0 when not limited or a token was ready)
+     */
+    public long acquire(String gatewayKey, String companyId) throws InterruptedException {
+        GatewayRateLimit limit = limitFor(gatewayKey, companyId);
+        if (limit == null) return 0;
+        TokenBucket bucket = buckets.computeIfAbsent(key(gatewayKey, companyId),
+                k -> new TokenBucket(limit.requestsPerSecond, limit.burst));
+        long wait = bucket.reserve();
+        if (wait > 0) TimeUnit.NANOSECONDS.sleep(wait);
+        return wait;
+    }
+
+    private GatewayRateLimit limitFor(String gatewayKey, String companyId) {
+        Map<String, GatewayRateLimit> current = limits;
+        if (current == null) current = reload();
+        GatewayRateLimit limit = current.get(key(gatewayKey, companyId));
+        return limit != null ? limit : current.get(key(gatewayKey, null));
+    }
+
+    private static String key(String gatewayKey, String companyId) {
+        return gatewayKey + "|" + (companyId != null ? companyId : "*");
+    }
+
+    @Scheduled(every = "${app.processing.rate-limit.refresh:30s}", identity = "rate-limit-refresh",
+            concurrentExecution = SKIP)
+    void refresh() {
+        try {
+            reload();
+        } catch (Exception e) {
+            // Keep the previous limits
+            Log.warnf("[RATE] reload of gateway_rate_limits failed: %s", e.getMessage());
+        }
+    }
+
+    /**
+     * Re-reads every enabled limit and resizes the live buckets.
+     */
+    public synchronized Map<String, GatewayRateLimit> reload() {
+        Map<String, GatewayRateLimit> loaded = new HashMap<>();
+        for (GatewayRateLimit l : GatewayRateLimit.<GatewayRateLimit>list("enabled", true)) {
+            if (l.gatewayKey != null && l.requestsPerSecond > 0) loaded.put(key(l.gatewayKey, l.companyId), l);
+        }
+        limits = loaded;
+
+        buckets.entrySet().removeIf(e -> {
+            String[] parts = e.getKey().split("\\|", 2);
+            GatewayRateLimit l = limitFor(parts[0], "*".equals(parts[1]) ? null : parts[1]);
+            if (l == null) return true;
+            e.getValue().configure(l.requestsPerSecond, l.burst);
+            return false;
+        });
+        return loaded;
+    }
+
+    /**
+     * Live buckets, for the ops endpoint.
+     */
+    public List<BucketSnapshot> snapshots() {
+        List<BucketSnapshot> out = new ArrayList<>();
+        buckets.forEach((k, b) -> {
+            String[] parts = k.split("\\|", 2);
+            out.add(new BucketSnapshot(parts[0], parts[1], b.rate(), b.available()));
+        });
+        out.sort((a, b) -> (a.gatewayKey() + a.companyId()).compareTo(b.gatewayKey() + b.companyId()));
+        return out;
+    }
+
+    public record BucketSnapshot(String gatewayKey, String companyId, double requestsPerSecond,
+                                 double tokensAvailable) {
+    }
+}
@@ -0,0 +1,104 @@
+package com.transact.scheduler;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+import com.transact.processor.model.BatchData;
+import io.quarkus.logging.Log;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.inject.Any;
+import jakarta.enterprise.inject.Instance;
+import jakarta.inject.Inject;
+import org.bson.types.ObjectId;
+import org.eclipse.microprofile.context.ManagedExecutor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * PayloadPrebuilder — maps and serializes every row of a batch once, when it is
+ * validated, for channels that implement {@link EncodedGatewayChannel#prebuild}. The compact
+ * JSON is stored on {@link BatchData#payload} and sent as is by the engine, so mapping
+ * and serialization leave the dispatch hot path and retries reuse the same bytes.
+ * <p>
+ * Validation does not wait for it: {@link #prebuildAsync} runs on the managed executor
+ * and writes payloads chunk by chunk, only onto rows still PENDING. Rows dispatched
+ * before their payload is written, older batches and rows whose mapping failed are
+ * built at dispatch — the same mapping, hence the same JSON.
+ */
+@ApplicationScoped
+public class PayloadPrebuilder {
+
+    private static final int WRITE_CHUNK = 500;
+
+    @Inject
+    @Any
+    Instance<GatewayChannel<?, ?>> channels;
+    @Inject
+    ObjectMapper objectMapper;
+    @Inject
+    ManagedExecutor managedExecutor;
+
+    /**
+     * Prebuilds in the background; failures are logged, the rows are then built at dispatch.
+     */
+    public void prebuildAsync(ObjectId batchId, String applicationName) {
+        managedExecutor.runAsync(() -> prebuild(batchId, applicationName))
+                .exceptionally(e -> {
+                    Log.warnf(e, "[%s] payloads not prebuilt, they will be built at dispatch", batchId);
+                    return null;
+                });
+    }
+
+    /**
+     * @return number of rows given a payload (0 when the application's channel does not prebuild)
+     */
+    public long prebuild(ObjectId batchId, String applicationName) {
+        for (GatewayChannel<?, ?> channel : channels) {
+            if (channel.featureKey().equals(applicationName))
+                return channel instanceof EncodedGatewayChannel<?, ?> encoded ? prebuild(encoded, batchId) : 0;
+        }
+        return 0;
+    }
+
+    private <S, P> long prebuild(EncodedGatewayChannel<S, P> channel, ObjectId batchId) {
+        long built = 0;
+        List<WriteModel<BatchData>> writes = new ArrayList<>(WRITE_CHUNK);
+        try (MongoCursor<BatchData> cursor = BatchData.collection()
+                .find(Filters.and(Filters.eq("batchId", batchId), Filters.eq("processingStatus", "PENDING")))
+                .batchSize(WRITE_CHUNK).iterator()) {
+            while (cursor.hasNext()) {
+                BatchData row = cursor.next();
+                String json;
+                try {
+                    P payload = channel.prebuild(row);
+                    if (payload == null) break;   // channel builds at dispatch time — flush what is queued
+                    json = objectMapper.writeValueAsString(payload);
+                } catch (Exception e) {
+                    Log.warnf("[%s] %s row %d payload not prebuilt: %s",
+                            batchId, channel.tag(), row.lineNumber, e.getMessage());
+                    continue;
+                }
+                // Dispatch may already have taken the row: it then builds the payload itself
+                writes.add(new UpdateOneModel<>(
+                        Filters.and(Filters.eq("_id", row.id), Filters.eq("processingStatus", "PENDING")),
+                        Updates.set("payload", json)));
+                if (writes.size() == WRITE_CHUNK) built += write(writes);
+            }
+        }
+        built += write(writes);
+        Log.infof("[%s] %s %d payload(s) prebuilt", batchId, channel.tag(), built);
+        return built;
+    }
+
+    private long write(List<WriteModel<BatchData>> writes) {
+        if (writes.isEmpty()) return 0;
+        long n = BatchData.mongoCollection().bulkWrite(writes, new BulkWriteOptions().ordered(false)).getModifiedCount();
+        writes.clear();
+        return n;
+    }
+}
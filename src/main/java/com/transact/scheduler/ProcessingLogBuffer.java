@@ -0,0 +1,133 @@
+package com.transact.scheduler;
+
+import com.transact.processor.model.ProcessingLogEntry;
+import io.quarkus.logging.Log;
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
+import io.quarkus.scheduler.Scheduled;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static io.quarkus.scheduler.Scheduled.ConcurrentExecution.SKIP;
+
+/**
+ * ProcessingLogBuffer — write-behind for {@link ProcessingLogEntry#log}.
+ * <p>
+ * Entries go to a bounded in-memory queue and are written in unordered bulk writes
+ * ({@link ProcessingLogEntry#persistAll}) by a single background writer
+ * ({@code processing-log} bulkhead): every
+ * {@code app.processing.log-buffer.flush-interval}, as soon as {@code batch-size} entries
+ * are waiting, and on shutdown. The thread that logs never waits for Mongo.
+ * <p>
+ * When the queue is full ({@code capacity}), {@code overflow} decides: DROP_OLDEST
+ * (default) evicts the oldest waiting entry, WRITE_THROUGH inserts the new entry on the
+ * caller's thread as before. Dropped entries are counted and reported in a WARN entry.
+ */
+@ApplicationScoped
+public class ProcessingLogBuffer {
+
+    public enum Overflow {DROP_OLDEST, WRITE_THROUGH}
+
+    private static final String BULKHEAD = "processing-log";
+
+    @ConfigProperty(name = "app.processing.log-buffer.capacity", defaultValue = "10000")
+    int capacity;
+
+    @ConfigProperty(name = "app.processing.log-buffer.batch-size", defaultValue = "500")
+    int batchSize;
+
+    @ConfigProperty(name = "app.processing.log-buffer.overflow", defaultValue = "DROP_OLDEST")
+    Overflow overflow;
+
+    @Inject
+    Bulkheads bulkheads;
+
+    private BlockingQueue<ProcessingLogEntry> queue;
+    private final AtomicBoolean writing = new AtomicBoolean(false);
+    private final AtomicLong dropped = new AtomicLong();
+
+    void onStart(@Observes StartupEvent ev) {
+        queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        ProcessingLogEntry.writeBehind(this::offer);
+    }
+
+    void onStop(@Observes ShutdownEvent ev) {
+        ProcessingLogEntry.writeBehind(null);
+        flush();
+    }
+
+    // ── Producer ──────────────────────────────────────────────────────────────
+
+    private void offer(ProcessingLogEntry entry) {
+        while (!queue.offer(entry)) {
+            if (overflow == Overflow.WRITE_THROUGH) {
+                ProcessingLogEntry.persistAll(List.of(entry));
+                return;
+            }
+            if (queue.poll() != null) dropped.incrementAndGet();
+        }
+        if (queue.size() >= batchSize) kick();
+    }
+
+    private void kick() {
+        if (!writing.compareAndSet(false, true)) return;
+        try {
+            bulkheads.executor(BULKHEAD).execute(() -> {
+                try {
+                    drain();
+                } finally {
+                    writing.set(false);
+                }
+            });
+        } catch (Exception e) {
+            // Executor gone (shutdown) — the periodic / shutdown flush picks the entries up
+            writing.set(false);
+        }
+    }
+
+    // ── Writer ────────────────────────────────────────────────────────────────
+
+    @Scheduled(every = "${app.processing.log-buffer.flush-interval:1s}",
+            identity = "processing-log-flush", concurrentExecution = SKIP)
+    void flushPeriodically() {
+        if (queue != null && (!queue.isEmpty() || dropped.get() > 0)) kick();
+    }
+
+    /**
+     * Writes every queued entry on the calling thread.
+     */
+    public void flush() {
+        if (queue != null) drain();
+    }
+
+    private void drain() {
+        long lost = dropped.getAndSet(0);
+        if (lost > 0) {
+            Log.warnf("[PROCESSING-LOG] %d entr(ies) dropped — buffer full", lost);
+            queue.offer(new ProcessingLogEntry(null, "WARN",
+                    lost + " entrée(s) de journal perdue(s) — tampon de journalisation saturé"));
+        }
+        List<ProcessingLogEntry> chunk = new ArrayList<>(batchSize);
+        while (queue.drainTo(chunk, batchSize) > 0) {
+            write(chunk);
+            chunk.clear();
+        }
+    }
+
+    private void write(List<ProcessingLogEntry> entries) {
+        try {
+            ProcessingLogEntry.persistAll(entries);
+        } catch (Exception e) {
+            Log.errorf(e, "[PROCESSING-LOG] %d entr(ies) not written", entries.size());
+        }
+    }
+}
@@ -0,0 +1,1145 @@
+package com.transact.scheduler;
+
+import com.api.client.ProcessingResponse;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Updates;
+import com.transact.processor.model.*;
+import com.transact.service.EmailService;
+import io.quarkus.arc.Arc;
+import io.quarkus.arc.ManagedContext;
+import io.quarkus.logging.Log;
+import io.quarkus.panache.common.Parameters;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.WebApplicationException;
+import jakarta.ws.rs.core.Response;
+import org.bson.types.ObjectId;
+import org.eclipse.microprofile.config.ConfigProvider;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.context.ManagedExecutor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * RowDispatchEngine — the shared batch/row pipeline behind every T24 processor.
+ * <p>
+ * One run of {@link #run(GatewayChannel)} does, for each VALIDATED (or crash-interrupted
+ * PROCESSING) batch of the channel's application:
+ * <ol>
+ *   <li>resolve validator country → company id, then let the channel {@link GatewayChannel#open open} the batch</li>
+ *   <li>recover rows left CLAIMED by a crashed run (CLAIMED → PENDING)</li>
+ *   <li>atomically move the batch to PROCESSING</li>
+ *   <li>claim PENDING rows in chunks, then map → call gateway → complete/fail each one,
+ *       bounded by {@code maxThreads}; transient gateway failures put the row back to
+ *       PENDING with a jittered backoff ({@code nextAttemptAt}) until the attempts run out</li>
+ *   <li>finalize the batch status, persist {@link BatchStatistics} and send the completion email</li>
+ * </ol>
+ * Batches of one application run concurrently ({@code app.processing.batch-concurrency}) and
+ * share its row permits through a {@link FairPermitPool} weighted by uploader country + department.
+ * <p>
+ * Processors only implement {@link GatewayChannel}; throughput work done here applies to all of them.
+ */
+@ApplicationScoped
+public class RowDispatchEngine {
+
+    private final AtomicInteger activeBatches = new AtomicInteger(0);
+
+    private final Map<String, AtomicBoolean> running = new ConcurrentHashMap<>();
+    private final Set<String> rerun = ConcurrentHashMap.newKeySet();
+    private final Map<String, Instant> lastFullRun = new ConcurrentHashMap<>();
+    private final Map<String, FairPermitPool> sharePools = new ConcurrentHashMap<>();
+    private final Map<String, Admission> admissions = new ConcurrentHashMap<>();
+
+    private volatile ExecutorService virtualExecutor;
+
+    @ConfigProperty(name = "app.base-url", defaultValue = "http://localhost:8080")
+    String baseUrl;
+
+    @ConfigProperty(name = "app.processing.claim-chunk-size", defaultValue = "50")
+    int defaultClaimChunkSize;
+
+    @ConfigProperty(name = "app.processing.fallback-poll-interval", defaultValue = "5m")
+    Duration fallbackPollInterval;
+
+    @ConfigProperty(name = "app.processing.batch-concurrency", defaultValue = "4")
+    int defaultBatchConcurrency;
+
+    @ConfigProperty(name = "app.processing.retry.max-attempts", defaultValue = "3")
+    int retryMaxAttempts;
+
+    @ConfigProperty(name = "app.processing.retry.base-delay", defaultValue = "10s")
+    Duration retryBaseDelay;
+
+    @ConfigProperty(name = "app.processing.retry.max-delay", defaultValue = "5m")
+    Duration retryMaxDelay;
+
+    @ConfigProperty(name = "app.processing.retry.max-wait-in-run", defaultValue = "30s")
+    Duration retryMaxWaitInRun;
+
+    @Inject
+    RowOutcomeBuffer outcomes;
+    @Inject
+    GatewayPermits permits;
+    @Inject
+    GatewayRateLimiter rateLimiter;
+    @Inject
+    GatewayBreakers breakers;
+    @Inject
+    Bulkheads bulkheads;
+    @Inject
+    BatchLeases leases;
+    @Inject
+    BatchChangeWatcher watcher;
+    @Inject
+    BatchQueue queue;
+    @Inject
+    EmailService emailService;
+    @Inject
+    ObjectMapper objectMapper;
+    @Inject
+    ManagedExecutor managedExecutor;
+
+    private ObjectReader responseReader;
+
+    // ── Scheduler entry points ────────────────────────────────────────────────
+
+    /**
+     * Polling entry, called from the processors' {@code @Scheduled} methods. While the
+     * file_batch change stream is live, new batches are picked up by
+     * {@link BatchChangeWatcher} and polling only runs every
+     * {@code app.processing.fallback-poll-interval} (it still catches crash-interrupted
+     * PROCESSING batches and anything the stream missed).
+     */
+    public <S, P> void poll(GatewayChannel<S, P> channel) {
+        if (watcher.isLive()) {
+            Instant last = lastFullRun.get(channel.featureKey());
+            if (last != null && last.plus(fallbackPollInterval).isAfter(Instant.now())) return;
+        }
+        run(channel);
+    }
+
+    /**
+     * Processes every runnable batch of the channel's application. Runs of the same
+     * channel never overlap on this node: a run requested while one is in progress is
+     * folded into one more pass once it finishes. Batches that already ran since the
+     * previous call are eligible again.
+     */
+    public <S, P> void run(GatewayChannel<S, P> channel) {
+        admission(channel).finished.clear();
+        admit(channel);
+    }
+
+    private <S, P> void admit(GatewayChannel<S, P> channel) {
+        String key = channel.featureKey();
+        AtomicBoolean busy = running.computeIfAbsent(key, k -> new AtomicBoolean());
+        if (!busy.compareAndSet(false, true)) {
+            rerun.add(key);
+            return;
+        }
+        try {
+            do {
+                runOnce(channel);
+            } while (rerun.remove(key));
+        } finally {
+            busy.set(false);
+        }
+    }
+
+    private <S, P> void runOnce(GatewayChannel<S, P> channel) {
+        String key = channel.featureKey();
+        lastFullRun.put(key, Instant.now());
+        Application app = Application.findByName(key);
+        if (app == null) {
+            Log.errorf("[%s] Application config missing for key: %s", channel.tag(), key);
+            ProcessingLogEntry.log("ERROR", "[" + channel.tag() + "] Application config missing: " + key);
+            return;
+        }
+
+        if (!AppFeatureConfig.isFeatureEnabled(key)) {
+            Log.debugf("%s processing disabled", key);
+            return;
+        }
+
+        // VALIDATED = new batch ready to run
+        // PROCESSING = batch was mid-flight when the system failed — pick it up and resume
+        List<FileBatch> batches = FileBatch.list(
+                "status in :statuses and applicationId = :appId",
+                Parameters.with("statuses", List.of(FileBatch.STATUS_VALIDATED, FileBatch.STATUS_PROCESSING))
+                        .and("appId", app.id)
+        );
+
+        if (batches.isEmpty()) return;
+        batches = queue.order(batches);
+
+        // Channels whose batches must never overlap (shared transit account) run on one node at a time
+        String appLease = channel.serialBatches() ? BatchLeases.appKey(key) : null;
+        if (appLease != null && !leases.acquire(appLease)) {
+            Log.debugf("[%s] application leased by another node — skipping", channel.tag());
+            return;
+        }
+
+        try {
+            if (channel.serialBatches()) {
+                Log.infof("[%s] %d batch(es) to process (one at a time)", channel.tag(), batches.size());
+                for (FileBatch batch : batches) processBatchGuarded(channel, batch.id);
+                return;
+            }
+
+            // Several batches at once: a large file no longer holds up the small ones queued
+            // behind it. Their rows share the application's FairPermitPool (see dispatchRows).
+            // Batches take a slot as soon as one frees up — here, or in the refill that follows
+            // each finished batch — so one validated meanwhile does not wait for a whole pass.
+            Admission admission = admission(channel);
+            int started = 0;
+            for (FileBatch batch : batches) {
+                if (admission.active.contains(batch.id) || admission.finished.contains(batch.id)) continue;
+                if (!admission.slots.tryAcquire()) break;
+                admission.active.add(batch.id);
+                try {
+                    CompletableFuture.runAsync(() -> processBatchGuarded(channel, batch.id), managedExecutor)
+                            .whenComplete((v, e) -> {
+                                admission.active.remove(batch.id);
+                                admission.finished.add(batch.id);
+                                admission.slots.release();
+                                refill(channel);
+                            });
+                    started++;
+                } catch (RejectedExecutionException e) {
+                    admission.active.remove(batch.id);
+                    admission.slots.release();
+                    Log.warnf("[%s] executor rejected batch %s — left for the next run", channel.tag(), batch.id);
+                    break;
+                }
+            }
+            if (started > 0)
+                Log.infof("[%s] %d batch(es) started (%d running, %d at a time)",
+                        channel.tag(), started, admission.active.size(), admission.size);
+        } finally {
+            if (appLease != null) leases.release(appLease);
+        }
+    }
+
+    /**
+     * Hands the slot of a finished batch to the next runnable one.
+     */
+    private <S, P> void refill(GatewayChannel<S, P> channel) {
+        ManagedContext requestContext = Arc.container().requestContext();
+        requestContext.activate();
+        try {
+            admit(channel);
+        } catch (Exception e) {
+            Log.errorf(e, "[%s] batch refill failed", channel.tag());
+        } finally {
+            requestContext.terminate();
+        }
+    }
+
+    private Admission admission(GatewayChannel<?, ?> channel) {
+        return admissions.computeIfAbsent(channel.featureKey(), k -> new Admission(batchConcurrency(channel)));
+    }
+
+    /**
+     * Batch slots of one application on this node. {@code finished} holds the batches
+     * that ran since the last {@link #run} call, so a batch left PROCESSING (leased
+     * elsewhere, rows waiting for a retry) is not restarted by every refill.
+     */
+    private static final class Admission {
+        final int size;
+        final Semaphore slots;
+        final Set<ObjectId> active = ConcurrentHashMap.newKeySet();
+        final Set<ObjectId> finished = ConcurrentHashMap.newKeySet();
+
+        Admission(int size) {
+            this.size = size;
+            this.slots = new Semaphore(size);
+        }
+    }
+
+    private <S, P> void processBatchGuarded(GatewayChannel<S, P> channel, ObjectId batchId) {
+        try {
+            processBatch(channel, batchId);
+        } catch (Exception e) {
+            String msg = "CRITICAL_BATCH_FAILURE: " + e.getMessage();
+            Log.errorf(e, "[%s] %s %s", batchId, channel.tag(), msg);
+            ProcessingLogEntry.log(batchId, "ERROR", msg);
+        }
+    }
+
+    /**
+     * Batches of one application processed at the same time on this node:
+     * {@code app.processing.batch-concurrency.<FEATURE_KEY>}, falling back to
+     * {@code app.processing.batch-concurrency}. Channels with {@link GatewayChannel#serialBatches()}
+     * always run one at a time.
+     */
+    int batchConcurrency(GatewayChannel<?, ?> channel) {
+        int n = ConfigProvider.getConfig()
+                .getOptionalValue("app.processing.batch-concurrency." + channel.featureKey(), Integer.class)
+                .orElse(defaultBatchConcurrency);
+        return Math.max(1, n);
+    }
+
+    /**
+     * Fair-share weight of a tenant: {@code app.processing.fair-share.weight.<COUNTRY-DEPARTMENT>},
+     * then {@code app.processing.fair-share.weight.<COUNTRY>}, then 1.
+     */
+    double shareWeight(String tenant) {
+        var config = ConfigProvider.getConfig();
+        String prefix = "app.processing.fair-share.weight.";
+        int dash = tenant.indexOf('-');
+        return config.getOptionalValue(prefix + tenant, Double.class)
+                .or(() -> dash > 0 ? config.getOptionalValue(prefix + tenant.substring(0, dash), Double.class)
+                        : Optional.empty())
+                .orElse(1.0);
+    }
+
+    /**
+     * Application → tenant → rows in flight on this node.
+     */
+    public Map<String, Map<String, Integer>> fairShares() {
+        Map<String, Map<String, Integer>> out = new TreeMap<>();
+        sharePools.forEach((app, pool) -> out.put(app, pool.inFlightByTenant()));
+        return out;
+    }
+
+    /**
+     * Rows claimed per round trip: {@code app.processing.claim-chunk-size.<FEATURE_KEY>},
+     * falling back to {@code app.processing.claim-chunk-size}.
+     */
+    int claimChunkSize(GatewayChannel<?, ?> channel) {
+        int size = ConfigProvider.getConfig()
+                .getOptionalValue("app.processing.claim-chunk-size." + channel.featureKey(), Integer.class)
+                .orElse(defaultClaimChunkSize);
+        return Math.max(1, size);
+    }
+
+    /**
+     * {@code app.processing.execution-mode.<FEATURE_KEY>} — MANAGED unless configured.
+     */
+    ExecutionMode executionMode(GatewayChannel<?, ?> channel) {
+        return ExecutionMode.parse(ConfigProvider.getConfig()
+                .getOptionalValue("app.processing.execution-mode." + channel.featureKey(), String.class)
+                .orElse(null));
+    }
+
+    /**
+     * Executor for the rows of a batch: the bulkhead of the batch's gateway, or virtual
+     * threads (created at startup, see {@link #checkExecutionModes}).
+     */
+    private Executor rowExecutor(ExecutionMode mode, String gatewayKey) {
+        if (mode != ExecutionMode.VIRTUAL) return bulkheads.executor(gatewayKey);
+        if (virtualExecutor == null) throw new IllegalStateException("VIRTUAL execution mode was not configured at startup");
+        return virtualExecutor;
+    }
+
+    /**
+     * Fails startup when an application is configured VIRTUAL on a JVM without virtual
+     * threads (JDK 17 images), rather than running it on the bulkhead unnoticed.
+     */
+    void checkExecutionModes(@Observes StartupEvent ev) {
+        String prefix = "app.processing.execution-mode.";
+        List<String> virtual = new ArrayList<>();
+        var config = ConfigProvider.getConfig();
+        for (String name : config.getPropertyNames()) {
+            if (name.startsWith(prefix) && ExecutionMode.parse(config.getOptionalValue(name, String.class)
+                    .orElse(null)) == ExecutionMode.VIRTUAL)
+                virtual.add(name.substring(prefix.length()));
+        }
+        if (virtual.isEmpty()) return;
+        virtualExecutor = ExecutionMode.newVirtualThreadExecutor().orElseThrow(() -> new IllegalStateException(
+                "VIRTUAL execution mode configured for " + virtual + " but this JVM (" + Runtime.version()
+                        + ") has no virtual threads — run on JDK 21+ or set them to MANAGED"));
+        Log.infof("Rows of %s run on virtual threads", virtual);
+    }
+
+    @PostConstruct
+    void init() {
+        responseReader = objectMapper.readerFor(ProcessingResponse.class);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (virtualExecutor != null) virtualExecutor.shutdown();
+    }
+
+    /**
+     * Number of batches currently being processed on this node (all channels).
+     */
+    public int activeBatches() {
+        return activeBatches.get();
+    }
+
+    // ── Batch processing ──────────────────────────────────────────────────────
+
+    private <S, P> void processBatch(GatewayChannel<S, P> channel, ObjectId batchId) {
+        String tag = channel.tag();
+
+        // Another node owns this batch — leave it alone (its CLAIMED rows are live, not orphans)
+        String lease = BatchLeases.batchKey(batchId);
+        if (!leases.acquire(lease)) {
+            Log.debugf("[%s] %s batch leased by another node — skipping", batchId, tag);
+            return;
+        }
+        activeBatches.incrementAndGet();
+
+        try {
+            FileBatch batch = FileBatch.findById(batchId);
+            if (batch == null) {
+                Log.errorf("[%s] Batch not found", batchId);
+                return;
+            }
+
+            String country = AppUser.findByUsername(batch.validatedById)
+                    .map(AppUser::getCountryCode).orElse(null);
+            if (country == null) {
+                Log.errorf("[%s] %s validator country not found: %s", batchId, tag, batch.validatedById);
+                return;
+            }
+
+            String companyId = Country.findByCode(country);
+            if (companyId == null) {
+                Log.errorf("[%s] %s company id not found for country: %s", batchId, tag, country);
+                return;
+            }
+
+            BatchRun run = new BatchRun(batch, country, companyId, UUID.randomUUID().toString(),
+                    tenantOf(batch, country));
+            S state = channel.open(run);
+            if (state == null) return;
+
+            // We hold the lease, so any row left in CLAIMED state was mid-flight when
+            // the previous owner (this JVM before a restart, or a node whose lease
+            // expired) died.  Reset it to PENDING so it is retried.
+            // A crash is not a processing failure — retryCount is NOT incremented.
+            recoverRows(tag, batchId);
+
+            // Batches uploaded before row counters existed: seed them once from batch_data
+            if (!batch.rowCounters) {
+                RowCounts counts = RowCounts.of(batchId);
+                FileBatch.syncRowCounters(batchId, counts.total, counts.completed, counts.failed);
+            }
+
+            // Atomic transition: VALIDATED or PROCESSING → PROCESSING.
+            // Uses the native MongoDB driver directly — Panache's update().where() DSL
+            // has unreliable parameter resolution when update() and where() both carry params.
+            long updated = FileBatch.mongoCollection().updateOne(
+                    Filters.and(
+                            Filters.eq("_id", batchId),
+                            Filters.in("status", FileBatch.STATUS_VALIDATED, FileBatch.STATUS_PROCESSING)
+                    ),
+                    Updates.combine(
+                            Updates.set("status", FileBatch.STATUS_PROCESSING),
+                            Updates.set("processingTimestamp", Instant.now())
+                    )
+            ).getModifiedCount();
+
+            if (updated == 0) {
+                Log.warnf("[%s] Batch status changed externally — skipping", batchId);
+                return;
+            }
+
+            if (!channel.beforeRows(run, state)) return;
+
+            // Only PENDING rows need work.  COMPLETED and FAILED rows are already done.
+            // When none are left (restart after finalize failed to write status) the
+            // loop claims nothing and we fall straight through to finalizeBatch().
+            dispatchRows(channel, run, state);
+
+            // Every row outcome must be in batch_data before counting for finalization.
+            outcomes.flush();
+
+            // Lease taken over mid-run: the new owner recovers and finalizes the batch.
+            if (!leases.holds(lease)) {
+                Log.warnf("[%s] %s lease lost — leaving the batch to its new owner", batchId, tag);
+                return;
+            }
+
+            // Defensive cleanup: if a row handed to a worker is still CLAIMED by this run
+            // (failed outcome write + safety net), force it to FAILED now so finalizeBatch()
+            // can account for it and close the batch. Unsent rows were requeued by dispatchRows.
+            long orphaned = BatchData.update("processingStatus = 'FAILED'")
+                    .where("batchId = ?1 and processingStatus = 'CLAIMED' and workerId = ?2",
+                            batchId, run.workerId);
+            FileBatch.incRowCounters(batchId, -orphaned, 0, orphaned);
+            if (orphaned > 0)
+                Log.warnf("[%s] %s force-failed %d orphaned CLAIMED row(s) before finalization",
+                        batchId, tag, orphaned);
+
+            finalizeBatch(channel, run, state);
+
+        } finally {
+            activeBatches.decrementAndGet();
+            leases.release(lease);
+        }
+    }
+
+    private <S, P> void dispatchRows(GatewayChannel<S, P> channel, BatchRun run, S state) {
+        ExecutionMode mode = executionMode(channel);
+        String batchGateway = channel.batchGatewayKey(state);
+        Executor executor = rowExecutor(mode, batchGateway);
+        // MANAGED: one pool thread per in-flight row, so maxThreads bounds the batch.
+        // VIRTUAL: threads are cheap — only the gateway permit budget bounds it.
+        int inFlight = executor != virtualExecutor
+                ? channel.maxThreads()
+                : permits.budget(batchGateway);
+        // One pool per application, shared by all its concurrent batches and split by tenant
+        FairPermitPool limiter = sharePools.computeIfAbsent(channel.featureKey(), k -> new FairPermitPool(inFlight));
+        limiter.setCapacity(inFlight);
+        double weight = shareWeight(run.tenant);
+        // Tracks rows in flight without keeping a future per row: the dispatcher is one
+        // party, each running row registers and deregisters itself.
+        Phaser rowsInFlight = new Phaser(1);
+        int chunkSize = claimChunkSize(channel);
+        List<BatchData> unsent = List.of();
+
+        // Rows are claimed chunk by chunk (one updateMany per chunk); the next chunk is
+        // only claimed once every row of the current one has a permit, so at most
+        // chunkSize + maxThreads rows are CLAIMED — and held in memory — by this worker
+        // at any time, whatever the batch size.
+        // Claiming stops as soon as the batch lease is lost.
+        chunks:
+        while (leases.holds(BatchLeases.batchKey(run.batchId))) {
+            List<BatchData> chunk = BatchData.claimChunk(run.batchId, run.workerId, chunkSize);
+            // Progress heartbeat: a long run of a healthy batch must not look stuck
+            FileBatch.touchProcessing(run.batchId);
+            if (chunk.isEmpty()) {
+                // Nothing due. Rows still in flight may yet be rescheduled, so wait for them,
+                // then stay on the batch if a retry comes due soon enough; otherwise leave it
+                // PROCESSING for a later run.
+                awaitRows(rowsInFlight);
+                if (!awaitNextRetry(run)) break;
+                continue;
+            }
+
+            for (int i = 0; i < chunk.size(); i++) {
+                BatchData row = chunk.get(i);
+                try {
+                    limiter.acquire(run.tenant, weight);
+                    rowsInFlight.register();
+                    executor.execute(() -> {
+                        try {
+                            processRow(channel, run, state, row);
+                        } catch (Exception e) {
+                            // Safety net: processRow() threw after claiming the row.
+                            // Must NOT propagate — the row must still deregister below,
+                            // or awaitRows() and finalizeBatch() would never be reached.
+                            Log.errorf(e, "%s %s unexpected error in processRow — forcing FAILED",
+                                    run.ctx(row), channel.tag());
+                            try {
+                                long failed = BatchData.update("processingStatus = 'FAILED'")
+                                        .where("_id = ?1 and processingStatus = 'CLAIMED' and workerId = ?2",
+                                                row.id, run.workerId);
+                                FileBatch.incRowCounters(run.batchId, -failed, 0, failed);
+                            } catch (Exception ex2) {
+                                Log.errorf(ex2, "%s %s safety-net update also failed", run.ctx(row), channel.tag());
+                            }
+                        } finally {
+                            limiter.release(run.tenant);
+                            rowsInFlight.arriveAndDeregister();
+                        }
+                    });
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    Log.errorf("[%s] Interrupted while queuing rows", run.batchId);
+                    unsent = chunk.subList(i, chunk.size());
+                    break chunks;
+                } catch (RejectedExecutionException e) {
+                    // Executor shutting down
+                    limiter.release(run.tenant);
+                    rowsInFlight.arriveAndDeregister();
+                    Log.errorf("[%s] %s row executor rejected work: %s", run.batchId, channel.tag(), e.getMessage());
+                    unsent = chunk.subList(i, chunk.size());
+                    break chunks;
+                }
+            }
+        }
+
+        awaitRows(rowsInFlight);
+        if (!unsent.isEmpty()) requeueUnsent(channel, run, unsent);
+    }
+
+    /**
+     * Rows claimed with a chunk but never handed to a worker go back to PENDING: they
+     * never reached the gateway, so the orphan sweep must not count them as FAILED.
+     */
+    private void requeueUnsent(GatewayChannel<?, ?> channel, BatchRun run, List<BatchData> rows) {
+        // The driver refuses to run on an interrupted thread — restore the flag afterwards
+        boolean interrupted = Thread.interrupted();
+        try {
+            long requeued = BatchData.requeueClaimed(rows.stream().map(r -> r.id).toList(), run.workerId);
+            Log.warnf("[%s] %s %d unsent row(s) put back to PENDING", run.batchId, channel.tag(), requeued);
+        } catch (Exception e) {
+            Log.errorf(e, "[%s] %s could not requeue %d unsent row(s)", run.batchId, channel.tag(), rows.size());
+        } finally {
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Waits until every row dispatched so far has finished. Each row deregisters in a
+     * finally block, so this always returns and finalizeBatch() is always reached.
+     */
+    private void awaitRows(Phaser rowsInFlight) {
+        rowsInFlight.arriveAndAwaitAdvance();
+    }
+
+    /**
+     * Sleeps until the batch's next retry is due when that is within
+     * {@code app.processing.retry.max-wait-in-run}. Returns false when no row is
+     * waiting, the wait would be longer, or the thread was interrupted.
+     */
+    private boolean awaitNextRetry(BatchRun run) {
+        Instant next = BatchData.nextRetryAt(run.batchId);
+        if (next == null) return false;
+        Duration wait = Duration.between(Instant.now(), next);
+        if (wait.compareTo(retryMaxWaitInRun) > 0) {
+            Log.infof("[%s] Next retry at %s — leaving batch PROCESSING until then", run.batchId, next);
+            return false;
+        }
+        if (wait.isNegative()) return true;
+        try {
+            Thread.sleep(wait.toMillis());
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    // ── Row recovery ──────────────────────────────────────────────────────────
+
+    /**
+     * The team a batch belongs to for fair sharing: the uploader's country + department,
+     * the validator's country when the uploader is unknown.
+     */
+    private String tenantOf(FileBatch batch, String validatorCountry) {
+        Optional<AppUser> uploader = batch.uploadedById == null ? Optional.empty()
+                : AppUser.findByUsername(batch.uploadedById);
+        String country = uploader.map(AppUser::getCountryCode).orElse(validatorCountry);
+        Integer department = uploader.map(u -> u.department).orElse(null);
+        return department != null ? country + "-" + department : country;
+    }
+
+    private void recoverRows(String tag, ObjectId batchId) {
+        long claimed = BatchData.update("processingStatus = 'PENDING', workerId = null")
+                .where("batchId = :batchId and processingStatus = 'CLAIMED'",
+                        Parameters.with("batchId", batchId));
+        if (claimed > 0) {
+            Log.warnf("[%s] %s recovered %d CLAIMED row(s) → PENDING (system restart)", batchId, tag, claimed);
+            ProcessingLogEntry.log(batchId, "WARN",
+                    String.format("Récupération %s après redémarrage : %d ligne(s) relancée(s)", tag, claimed));
+        }
+    }
+
+    // ── Row-level processing ──────────────────────────────────────────────────
+
+    /**
+     * Processes a row already CLAIMED by this run (see {@link BatchData#claimChunk}).
+     */
+    private <S, P> void processRow(GatewayChannel<S, P> channel, BatchRun run, S state, BatchData row) {
+        String ctx = run.ctx(row);
+        // The row may have waited for a permit since its chunk was claimed
+        if (!BatchData.confirmClaim(row.id, run.workerId)) {
+            Log.warnf("%s %s claim lost before sending (requeued) — skipped", ctx, channel.tag());
+            return;
+        }
+        String correlationId = channel.correlationId(row, run, state);
+        Outcome outcome;
+        Supplier<String> loggedPayload;
+
+        EncodedGatewayChannel<S, P> encoded = channel instanceof EncodedGatewayChannel<S, P> enc ? enc : null;
+        if (encoded != null && row.payload != null) {
+            // Prebuilt at validation: channels that prebuild route per batch, not per payload
+            String json = row.payload;
+            byte[] body = json.getBytes(StandardCharsets.UTF_8);
+            loggedPayload = () -> json;
+            outcome = exchange(channel, channel.batchGatewayKey(state), run.companyId, correlationId,
+                    () -> encoded.sendEncoded(body, correlationId, run, state));
+        } else {
+            P payload;
+            try {
+                payload = channel.toPayload(row, run, state);
+            } catch (RowRejectedException e) {
+                failRow(run.batchId, row, e.getMessage());
+                return;
+            }
+            byte[] body = encoded != null ? encode(payload) : null;
+            if (body != null) {
+                // Encoded once: the same bytes go on the wire and into the failure log
+                loggedPayload = () -> new String(body, StandardCharsets.UTF_8);
+                outcome = exchange(channel, channel.gatewayKey(payload, state), run.companyId, correlationId,
+                        () -> encoded.sendEncoded(body, correlationId, run, state));
+            } else {
+                loggedPayload = () -> serialize(channel.loggable(payload));
+                outcome = exchange(channel, channel.gatewayKey(payload, state), run.companyId, correlationId,
+                        () -> channel.send(payload, correlationId, run, state));
+            }
+        }
+
+        if (outcome.ok) {
+            Log.infof("%s %s SUCCESS: %s", ctx, channel.tag(), outcome.ref);
+            completeRow(run.batchId, row, outcome.ref);
+            return;
+        }
+
+        if (outcome.parkedUntil != null) {
+            // Circuit open: the gateway was not called, so this is not an attempt
+            Instant at = outcome.parkedUntil.plus(retryDelay(0));
+            if (BatchData.scheduleRetry(row.id, run.workerId, at, outcome.error, false)) {
+                Log.debugf("%s %s parked until %s: %s", ctx, channel.tag(), at, outcome.error);
+                return;
+            }
+        }
+
+        if (outcome.retryable && row.retryCount + 1 < retryMaxAttempts) {
+            Instant at = Instant.now().plus(retryDelay(row.retryCount));
+            if (BatchData.scheduleRetry(row.id, run.workerId, at, outcome.error, true)) {
+                ProcessingLogEntry.logRow(run.batchId, "WARN", row.lineNumber, outcome.error, String.format(
+                        "Row %d transient failure (attempt %d/%d): %s — retry at %s",
+                        row.lineNumber, row.retryCount + 1, retryMaxAttempts, outcome.error, at), null);
+                return;
+            }
+        }
+
+        String error = outcome.retryable && row.retryCount > 0
+                ? outcome.error + " (after " + (row.retryCount + 1) + " attempts)"
+                : outcome.error;
+        String log = String.format("Row %d failed: %s", row.lineNumber, error);
+        if (outcome.raw != null) log += " | Response: " + outcome.raw;
+        ProcessingLogEntry.logRow(run.batchId, "ERROR", row.lineNumber, outcome.error, log, loggedPayload.get());
+        failRow(run.batchId, row, error);
+    }
+
+    /**
+     * Exponential backoff with full jitter: uniform in [0, min(maxDelay, baseDelay * 2^attempt)],
+     * so rows that failed together during an outage do not come back in lockstep.
+     */
+    Duration retryDelay(int attempt) {
+        long cap = Math.min(retryMaxDelay.toMillis(), retryBaseDelay.toMillis() << Math.min(attempt, 20));
+        return Duration.ofMillis(ThreadLocalRandom.current().nextLong(Math.max(1, cap) + 1));
+    }
+
+    /**
+     * Performs one gateway call and interprets the reply the same way for every channel:
+     * success, idempotent replay (counted as success) or failure. Never throws.
+     * Also used by channels for batch-level calls (e.g. the VIREMENT_SALAIRE step 1).
+     * Waits for a rate token of (gatewayKey, companyId), then for an in-flight permit.
+     */
+    public Outcome exchange(GatewayChannel<?, ?> channel, String gatewayKey, String companyId,
+                            String correlationId, Callable<Response> call) {
+        // Open circuit: fail fast, the caller parks the row until the next probe
+        GatewayBreakers.Ticket ticket = breakers.allow(gatewayKey);
+        if (ticket == null)
+            return Outcome.park("Circuit open for " + gatewayKey, breakers.retryAt(gatewayKey));
+
+        // Rate first, so a call waiting for its token does not sit on an in-flight permit
+        try {
+            rateLimiter.acquire(gatewayKey, companyId);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            breakers.record(ticket, null);
+            return Outcome.retry("Interrupted while waiting for a " + gatewayKey + " rate token", null);
+        }
+        try {
+            permits.acquire(gatewayKey);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            breakers.record(ticket, null);
+            return Outcome.retry("Interrupted while waiting for a " + gatewayKey + " permit", null);
+        }
+        long start = System.nanoTime();
+        int httpStatus = -1;   // stays -1 on timeout / connection error
+        try {
+            Response response;
+            try {
+                response = call.call();
+            } catch (WebApplicationException e) {
+                response = e.getResponse();
+            }
+
+            // No response at all — treat as failure
+            if (response == null)
+                return Outcome.unknown("No response from " + channel.gatewayName(), null);
+
+            try (Response resp = response) {
+                int status = resp.getStatus();
+                httpStatus = status;
+                Reply reply = readReply(resp, status);
+                channel.onReply(correlationId, status, reply.parsed());
+
+                // Empty body — treat as failure
+                if (reply.parsed() == null)
+                    return transientStatus(status)
+                            ? Outcome.retryStatus(status, "Empty response body from " + channel.gatewayName() + " (HTTP " + status + ")", raw(reply))
+                            : Outcome.fail("Empty response body from " + channel.gatewayName(), raw(reply));
+
+                ProcessingResponse res = reply.parsed();
+                if (status < 400 && res.isSuccessful())
+                    return Outcome.ok(res.header != null ? res.header.id : "N/A", null);
+
+                String errorMsg = channel.describeError(res, status);
+
+                // Idempotency: already processed → count as success
+                if (channel.isReplay(errorMsg)) {
+                    Log.warnf("[%s] IDEMPOTENCY: %s", channel.tag(), errorMsg);
+                    return Outcome.ok(res.header != null ? res.header.id : "EXISTING", null);
+                }
+                return transientStatus(status) ? Outcome.retryStatus(status, errorMsg, raw(reply)) : Outcome.fail(errorMsg, raw(reply));
+            }
+        } catch (Exception ex) {
+            String err = extractErrorMessage(ex);
+            Log.errorf(ex, "[%s] EXCEPTION: %s", channel.tag(), err);
+            // No status yet = timeout / connection reset / refused → worth another try.
+            // An exception after a reply (e.g. unparseable body) is permanent.
+            return httpStatus < 0 ? Outcome.unknown(err, null) : Outcome.fail(err, null);
+        } finally {
+            // Overload signals for the adaptive limit: no reply at all, or a transient status.
+            // A 500 is T24 rejecting the row (permanent), not the gateway being overloaded.
+            boolean dropped = httpStatus < 0 || transientStatus(httpStatus);
+            permits.release(gatewayKey, System.nanoTime() - start, dropped);
+            // Breaker signal: the gateway itself is unreachable or says it is unavailable
+            breakers.record(ticket, httpStatus < 0 || httpStatus == 502 || httpStatus == 503 || httpStatus == 504);
+        }
+    }
+
+    /**
+     * Gateway reply: the parsed body (null when empty) and, for error statuses, its bytes.
+     */
+    private record Reply(ProcessingResponse parsed, byte[] body) {
+    }
+
+    /**
+     * Success statuses are parsed straight from the entity stream — a success needs no
+     * raw body, so none is kept. Error statuses are read into bytes first, for the
+     * failure log. Either way the body is never decoded into a String unless logged.
+     */
+    private Reply readReply(Response resp, int status) throws IOException {
+        if (status < 400) {
+            try (InputStream in = resp.readEntity(InputStream.class)) {
+                if (in == null) return new Reply(null, null);
+                try (JsonParser parser = responseReader.createParser(in)) {
+                    if (parser.nextToken() == null) return new Reply(null, null);
+                    return new Reply(responseReader.readValue(parser), null);
+                }
+            }
+        }
+        byte[] body = resp.readEntity(byte[].class);
+        if (body == null || isBlank(body)) return new Reply(null, body);
+        return new Reply(responseReader.readValue(body), body);
+    }
+
+    /**
+     * Raw reply for troubleshooting; a 2xx rejection was not kept, so it is re-encoded.
+     */
+    private String raw(Reply reply) {
+        if (reply.body() != null) return new String(reply.body(), StandardCharsets.UTF_8);
+        return reply.parsed() != null ? serialize(reply.parsed()) : null;
+    }
+
+    private static boolean isBlank(byte[] body) {
+        for (byte b : body) if (!Character.isWhitespace(b)) return false;
+        return true;
+    }
+
+    // ── Row state transitions ─────────────────────────────────────────────────
+
+    // Outcomes are write-behind: see RowOutcomeBuffer for flush and crash semantics.
+
+    void completeRow(ObjectId batchId, BatchData row, String ref) {
+        outcomes.completed(batchId, row, ref);
+    }
+
+    void failRow(ObjectId batchId, BatchData row, String err) {
+        outcomes.failed(batchId, row, err);
+    }
+
+    /**
+     * Fails a whole batch (VALIDATED|PROCESSING → PROCESSED_FAILED) without touching its rows.
+     */
+    public void failBatch(ObjectId batchId, String tag, String reason) {
+        Log.errorf("[%s] %s %s", batchId, tag, reason);
+        ProcessingLogEntry.log(batchId, "ERROR", reason);
+        FileBatch.mongoCollection().updateOne(
+                Filters.and(Filters.eq("_id", batchId),
+                        Filters.in("status", FileBatch.STATUS_VALIDATED, FileBatch.STATUS_PROCESSING)),
+                Updates.combine(Updates.set("status", FileBatch.STATUS_PROCESSED_FAILED),
+                        Updates.set("processingTimestamp", Instant.now())));
+    }
+
+    // ── Finalization ──────────────────────────────────────────────────────────
+
+    private <S, P> void finalizeBatch(GatewayChannel<S, P> channel, BatchRun run, S state) {
+        ObjectId batchId = run.batchId;
+        String tag = channel.tag();
+
+        // Fast path: the batch's row counters. They can lag behind batch_data but never
+        // run ahead, so "nothing pending" is reliable; anything else is re-checked with
+        // count() scans, which also re-sync lagging counters.
+        FileBatch current = FileBatch.findById(batchId);
+        long total, completed, failed;
+        if (current != null && current.rowCounters && current.rowsPending == 0) {
+            completed = current.rowsCompleted;
+            failed = current.rowsFailed;
+            total = completed + failed;
+        } else {
+            RowCounts counts = RowCounts.of(batchId);
+            total = counts.total;
+            completed = counts.completed;
+            failed = counts.failed;
+            if (current != null && (!current.rowCounters
+                    || current.rowsCompleted != completed || current.rowsFailed != failed
+                    || current.rowsPending != total - completed - failed))
+                FileBatch.syncRowCounters(batchId, total, completed, failed);
+        }
+        if (total == 0) return;
+
+        // Not all rows are resolved yet — rows still in PENDING or CLAIMED
+        if (completed + failed < total) {
+            Log.debugf("[%s] %s not ready: %d/%d done (success=%d fail=%d)",
+                    batchId, tag, completed + failed, total, completed, failed);
+            return;
+        }
+
+        // Every row is either COMPLETED or FAILED — pick the batch's final status
+        String status;
+        if (failed == 0) status = FileBatch.STATUS_PROCESSED;
+        else if (completed > 0) status = FileBatch.STATUS_PROCESSED_PARTIAL;
+        else status = FileBatch.STATUS_PROCESSED_FAILED;
+
+        // Atomic write — only succeeds if the batch is still PROCESSING
+        long updated = FileBatch.mongoCollection().updateOne(
+                Filters.and(
+                        Filters.eq("_id", batchId),
+                        Filters.eq("status", FileBatch.STATUS_PROCESSING)
+                ),
+                Updates.combine(
+                        Updates.set("status", status),
+                        Updates.set("processingTimestamp", Instant.now())
+                )
+        ).getModifiedCount();
+
+        if (updated == 0) {
+            Log.warnf("[%s] %s finalize skipped — batch status already changed", batchId, tag);
+            return;
+        }
+
+        // Persist stats for the reports page
+        BatchStatistics stats = new BatchStatistics();
+        stats.id = batchId;
+        stats.totalRecords = total;
+        stats.successCount = completed;
+        stats.failureCount = failed;
+        stats.batchStatus = status;
+        stats.lastUpdatedAt = Instant.now();
+        stats.persistOrUpdate();
+
+        try {
+            channel.afterFinalize(run, state, status);
+        } catch (Exception e) {
+            Log.warnf(e, "[%s] %s post-finalize hook failed", batchId, tag);
+        }
+
+        Log.infof("[%s] %s FINALIZED → %s | total=%d success=%d failure=%d",
+                batchId, tag, status, total, completed, failed);
+
+        sendBatchCompletionAsync(tag, run.batch, status, stats);
+    }
+
+    // ── Email ─────────────────────────────────────────────────────────────────
+
+    private void sendBatchCompletionAsync(String tag, FileBatch batch, String status, BatchStatistics stats) {
+        ObjectId batchId = batch.id;
+        try {
+            AppUser uploader = AppUser.findByUsername(batch.uploadedById).orElse(null);
+            if (uploader == null || uploader.email == null || uploader.email.isBlank()) return;
+
+            final String toEmail = uploader.email;
+            final String username = uploader.getUsername();
+            final String filename = batch.originalFilename != null
+                    ? batch.originalFilename : batchId.toHexString();
+            final String appLabel = getAppLabel(batch.applicationId);
+            final String url = baseUrl + "/batches";
+            final long total = stats.totalRecords;
+            final long success = stats.successCount;
+            final long failure = stats.failureCount;
+
+            bulkheads.executor(Bulkheads.EMAIL).runAsync(() -> {
+                try {
+                    emailService.sendBatchCompletion(
+                            toEmail, username, filename, appLabel,
+                            status, total, success, failure, url);
+                } catch (Exception e) {
+                    Log.warnf(e, "[%s] %s completion email failed for %s", batchId, tag, toEmail);
+                }
+            });
+        } catch (Exception e) {
+            Log.warnf(e, "[%s] %s error preparing completion email", batchId, tag);
+        }
+    }
+
+    private String getAppLabel(ObjectId appId) {
+        if (appId == null) return "N/A";
+        try {
+            Application app = Application.findById(appId);
+            return app != null ? app.name : "N/A";
+        } catch (Exception e) {
+            return "N/A";
+        }
+    }
+
+    // ── Utilities ─────────────────────────────────────────────────────────────
+
+    /**
+     * Serialize an outgoing request for troubleshooting logs.
+     */
+    public String serialize(Object payload) {
+        try {
+            return objectMapper.writeValueAsString(payload);
+        } catch (Exception e) {
+            return "[Serialization Error]";
+        }
+    }
+
+    /**
+     * JSON bytes of an outgoing payload; null if it cannot be encoded (the typed send
+     * path then reports the problem as before).
+     */
+    private byte[] encode(Object payload) {
+        try {
+            return objectMapper.writeValueAsBytes(payload);
+        } catch (Exception e) {
+            Log.warnf("Payload encoding failed, sending it typed: %s", e.getMessage());
+            return null;
+        }
+    }
+
+    private String extractErrorMessage(Throwable t) {
+        if (t == null) return "Unknown error";
+        if (t instanceof WebApplicationException w && w.getResponse() != null) {
+            try (Response resp = w.getResponse()) {
+                byte[] body = resp.readEntity(byte[].class);
+                if (body != null && !isBlank(body)) {
+                    String err = responseReader.<ProcessingResponse>readValue(body).getErrorMessage();
+                    if (err != null) return err;
+                }
+            } catch (Exception ignored) {
+            }
+        }
+        return Optional.ofNullable(t.getMessage()).orElse(t.getClass().getSimpleName());
+    }
+
+    /**
+     * Authoritative row counts of a batch, straight from batch_data.
+     */
+    private record RowCounts(long total, long completed, long failed) {
+
+        static RowCounts of(ObjectId batchId) {
+            long total = BatchData.count("batchId", batchId);
+            long completed = BatchData.count(
+                    "batchId = ?1 and processingStatus = ?2", batchId, "COMPLETED");
+            // Count all failure-class states for backward compat with existing data
+            // (FAILED_PERMANENT and NO_RESPONSE existed in earlier versions)
+            long failed = BatchData.count(
+                    "batchId = ?1 and processingStatus in ?2",
+                    batchId, List.of("FAILED", "FAILED_PERMANENT", "NO_RESPONSE"));
+            return new RowCounts(total, completed, failed);
+        }
+    }
+
+    /**
+     * Result of a single gateway call.
+     */
+    public static final class Outcome {
+        public final boolean ok;
+        public final String ref;
+        public final String error;
+        public final String raw;   // raw response body, for troubleshooting
+        /**
+         * Transient failure (no reply, 408/429/502/503/504) — the row may be retried.
+         */
+        public final boolean retryable;
+        /**
+         * Set when the call was not made because the gateway's circuit is open.
+         */
+        public final Instant parkedUntil;
+        /**
+         * Retryable failure after which T24 may nevertheless have applied the request: no
+         * reply once sent (timeout, reset), or 502/504 from a proxy in front of it. A
+         * retry is only safe when the request is idempotent on T24's side.
+         */
+        public final boolean maybeApplied;
+
+        private Outcome(boolean ok, String ref, String error, String raw, boolean retryable, Instant parkedUntil,
+                        boolean maybeApplied) {
+            this.ok = ok;
+            this.ref = ref;
+            this.error = error;
+            this.raw = raw;
+            this.retryable = retryable;
+            this.parkedUntil = parkedUntil;
+            this.maybeApplied = maybeApplied;
+        }
+
+        static Outcome ok(String ref, String raw) {
+            return new Outcome(true, ref, null, raw, false, null, false);
+        }
+
+        static Outcome fail(String error, String raw) {
+            return new Outcome(false, null, error, raw, false, null, false);
+        }
+
+        /**
+         * Not sent (interrupted while waiting for a token or permit).
+         */
+        static Outcome retry(String error, String raw) {
+            return new Outcome(false, null, error, raw, true, null, false);
+        }
+
+        /**
+         * Sent, no reply: the outcome on T24's side is unknown.
+         */
+        static Outcome unknown(String error, String raw) {
+            return new Outcome(false, null, error, raw, true, null, true);
+        }
+
+        static Outcome retryStatus(int status, String error, String raw) {
+            return new Outcome(false, null, error, raw, true, null, status == 502 || status == 504);
+        }
+
+        static Outcome park(String error, Instant until) {
+            return new Outcome(false, null, error, null, true, until, false);
+        }
+    }
+
+    /**
+     * Gateway statuses that say "not now" rather than "no": request timeout, throttling
+     * and the gateway/proxy unavailability family. A plain 500 is T24's usual answer to a
+     * business error and stays permanent.
+     */
+    static boolean transientStatus(int status) {
+        return status == 408 || status == 429 || status == 502 || status == 503 || status == 504;
+    }
+}
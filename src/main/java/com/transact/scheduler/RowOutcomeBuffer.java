@@ -0,0 +1,202 @@
+package com.transact.scheduler;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+import com.transact.processor.model.BatchData;
+import com.transact.processor.model.FileBatch;
+import com.transact.processor.model.RowResult;
+import io.quarkus.logging.Log;
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.scheduler.Scheduled;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import org.bson.types.ObjectId;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static io.quarkus.scheduler.Scheduled.ConcurrentExecution.SKIP;
+
+/**
+ * RowOutcomeBuffer — write-behind buffer for row outcomes.
+ * <p>
+ * Instead of RowResult.count + RowResult.persist + BatchData.update per row, outcomes
+ * are queued here and written as unordered bulk writes (file_row_results upserts +
+ * batch_data status updates, then one $inc of the batch's row counters). The buffer is flushed when it reaches
+ * {@code app.processing.outcome-buffer.size}, every
+ * {@code app.processing.outcome-buffer.flush-interval}, by the engine before a
+ * batch is finalized, and on shutdown. One flush runs at a time, so the engine's flush
+ * also waits for outcomes another thread had already drained.
+ * <p>
+ * Crash semantics are unchanged: a row whose outcome was not flushed yet is still
+ * CLAIMED in batch_data and is reset to PENDING on restart. The RowResult upsert
+ * keys on (batchId, lineNumber) so a replayed outcome never creates a duplicate.
+ */
+@ApplicationScoped
+public class RowOutcomeBuffer {
+
+    @ConfigProperty(name = "app.processing.outcome-buffer.size", defaultValue = "200")
+    int maxBuffered;
+
+    private static final List<String> ACTIVE = List.of("PENDING", "CLAIMED");
+    private static final List<String> FAILED = List.of("FAILED", "FAILED_PERMANENT", "NO_RESPONSE");
+
+    private final ConcurrentLinkedQueue<Outcome> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger(0);
+    private final ReentrantLock writing = new ReentrantLock();
+
+    // ── Producers ─────────────────────────────────────────────────────────────
+
+    public void completed(ObjectId batchId, BatchData row, String ref) {
+        add(new Outcome(batchId, row.id, row.workerId, row.lineNumber, true, ref, null));
+    }
+
+    public void failed(ObjectId batchId, BatchData row, String err) {
+        add(new Outcome(batchId, row.id, row.workerId, row.lineNumber, false, null, err));
+    }
+
+    private void add(Outcome outcome) {
+        queue.add(outcome);
+        // A flush already running picks this outcome up, or leaves it to the next one
+        if (size.incrementAndGet() >= maxBuffered && writing.tryLock()) {
+            try {
+                drainAndWrite();
+            } finally {
+                writing.unlock();
+            }
+        }
+    }
+
+    void onStop(@Observes ShutdownEvent ev) {
+        // Accepted transfers not written yet would be sent again after the restart
+        flush();
+    }
+
+    // ── Flush ─────────────────────────────────────────────────────────────────
+
+    @Scheduled(every = "${app.processing.outcome-buffer.flush-interval:2s}",
+            identity = "row-outcome-flush", concurrentExecution = SKIP)
+    void flushPeriodically() {
+        if (size.get() > 0) flush();
+    }
+
+    /**
+     * Writes every queued outcome. Flushes are mutually exclusive: when this returns,
+     * every outcome queued before the call is in batch_data, including those another
+     * thread was writing at the time.
+     */
+    public void flush() {
+        writing.lock();
+        try {
+            drainAndWrite();
+        } finally {
+            writing.unlock();
+        }
+    }
+
+    private void drainAndWrite() {
+        List<Outcome> drained = new ArrayList<>();
+        Outcome o;
+        while ((o = queue.poll()) != null) {
+            drained.add(o);
+            size.decrementAndGet();
+        }
+        if (drained.isEmpty()) return;
+
+        List<WriteModel<RowResult>> results = new ArrayList<>(drained.size());
+        UpdateOptions upsert = new UpdateOptions().upsert(true);
+        Map<ObjectId, List<Outcome>> byBatch = new LinkedHashMap<>();
+
+        for (Outcome out : drained) {
+            // First outcome wins — same as the former "count == 0 then persist"
+            results.add(new UpdateOneModel<>(
+                    Filters.and(Filters.eq("batchId", out.batchId), Filters.eq("lineNumber", out.lineNumber)),
+                    Updates.combine(
+                            Updates.setOnInsert("status", out.success ? "SUCCESS" : "FAILED"),
+                            Updates.setOnInsert("t24Reference", out.ref),
+                            Updates.setOnInsert("errorMessage", out.error)),
+                    upsert));
+            byBatch.computeIfAbsent(out.batchId, k -> new ArrayList<>()).add(out);
+        }
+
+        try {
+            RowResult.mongoCollection().bulkWrite(results, new BulkWriteOptions().ordered(false));
+        } catch (Exception e) {
+            // Duplicate-key races on the unique index are harmless; the row status below is what counts
+            Log.warnf("[OUTCOME] file_row_results bulk write (%d) incomplete: %s", results.size(), e.getMessage());
+        }
+
+        byBatch.forEach(this::writeRows);
+    }
+
+    /**
+     * Row status writes for one batch, then one $inc of its counters by the number of
+     * rows that actually changed state (per transition kind, hence three bulk writes).
+     */
+    private void writeRows(ObjectId batchId, List<Outcome> outcomes) {
+        List<WriteModel<BatchData>> completedFromActive = new ArrayList<>();
+        List<WriteModel<BatchData>> completedFromFailed = new ArrayList<>();
+        List<WriteModel<BatchData>> failed = new ArrayList<>();
+
+        for (Outcome out : outcomes) {
+            if (out.success) {
+                // COMPLETED from any non-COMPLETED state — the gateway accepted it, whoever asked.
+                completedFromActive.add(new UpdateOneModel<>(
+                        Filters.and(Filters.eq("_id", out.rowId), Filters.in("processingStatus", ACTIVE)),
+                        Updates.set("processingStatus", "COMPLETED")));
+                completedFromFailed.add(new UpdateOneModel<>(
+                        Filters.and(Filters.eq("_id", out.rowId), Filters.in("processingStatus", FAILED)),
+                        Updates.set("processingStatus", "COMPLETED")));
+            } else {
+                // FAILED only while the row is still CLAIMED by the worker that tried it, so a
+                // node that lost its lease cannot fail a row its successor has re-claimed.
+                failed.add(new UpdateOneModel<>(
+                        Filters.and(Filters.eq("_id", out.rowId), Filters.eq("processingStatus", "CLAIMED"),
+                                Filters.eq("workerId", out.workerId)),
+                        Updates.set("processingStatus", "FAILED")));
+            }
+        }
+
+        long active = modified(batchId, completedFromActive);
+        long recovered = modified(batchId, completedFromFailed);
+        long newlyFailed = modified(batchId, failed);
+        try {
+            FileBatch.incRowCounters(batchId, -(active + newlyFailed), active + recovered, newlyFailed - recovered);
+        } catch (Exception e) {
+            // Counters only lag; finalization re-syncs them from batch_data
+            Log.warnf("[OUTCOME] [%s] row counter update failed: %s", batchId, e.getMessage());
+        }
+    }
+
+    private long modified(ObjectId batchId, List<WriteModel<BatchData>> models) {
+        if (models.isEmpty()) return 0;
+        try {
+            return BatchData.mongoCollection()
+                    .bulkWrite(models, new BulkWriteOptions().ordered(false))
+                    .getModifiedCount();
+        } catch (MongoBulkWriteException e) {
+            Log.errorf(e, "[OUTCOME] [%s] batch_data bulk write (%d) partially failed", batchId, models.size());
+            return e.getWriteResult().getModifiedCount();
+        } catch (Exception e) {
+            // Rows stay CLAIMED — the engine force-fails them before finalization,
+            // or they are recovered to PENDING on restart.
+            Log.errorf(e, "[OUTCOME] [%s] batch_data bulk write (%d) failed", batchId, models.size());
+            return 0;
+        }
+    }
+
+    private record Outcome(ObjectId batchId, ObjectId rowId, String workerId, int lineNumber,
+                           boolean success, String ref, String error) {
+    }
+}
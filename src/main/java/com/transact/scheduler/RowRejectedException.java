@@ -0,0 +1,13 @@
+package com.transact.scheduler;
+
+/**
+ * Thrown by {@link GatewayChannel#toPayload} when a row cannot be sent to the
+ * gateway at all (e.g. a missing reference). The row is failed with the
+ * exception message and no gateway call is made.
+ */
+public class RowRejectedException extends RuntimeException {
+
+    public RowRejectedException(String message) {
+        super(message);
+    }
+}
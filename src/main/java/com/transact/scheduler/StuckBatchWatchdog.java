@@ -0,0 +1,120 @@
+package com.transact.scheduler;
+
+import com.transact.processor.model.BatchData;
+import com.transact.processor.model.FileBatch;
+import com.transact.processor.model.ProcessingLogEntry;
+import io.quarkus.logging.Log;
+import io.quarkus.scheduler.Scheduled;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.context.control.ActivateRequestContext;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static io.quarkus.scheduler.Scheduled.ConcurrentExecution.SKIP;
+
+/**
+ * StuckBatchWatchdog — recovers PROCESSING batches nobody is working on.
+ * <p>
+ * A batch is stalled when it has been PROCESSING for more than
+ * {@code app.processing.stuck-timeout-minutes} (processingTimestamp is refreshed on
+ * every run and every claimed chunk) and no node holds its lease any more. Its CLAIMED
+ * rows are requeued and the channel is started right away instead of waiting for the
+ * next poll.
+ * <p>
+ * In a batch whose owner is still alive, only rows CLAIMED for longer than the timeout
+ * (claimedAt, restarted when the row's call starts) are requeued — a call that hung
+ * past every HTTP timeout, or a row that never got a permit. The owner re-checks its
+ * claim before sending, so a requeued row it has not sent yet is skipped, not sent
+ * twice. The hung thread can no longer fail such a row (its workerId is gone); a late
+ * success still counts.
+ * <p>
+ * Only one node scans at a time (lease {@code watchdog}). Counters are exposed by
+ * GET /api/v1/admin/processing/watchdog.
+ */
+@ApplicationScoped
+public class StuckBatchWatchdog {
+
+    private static final String LEASE_KEY = "watchdog";
+
+    @ConfigProperty(name = "app.processing.stuck-timeout-minutes", defaultValue = "30")
+    int stuckTimeoutMinutes;
+
+    @Inject
+    BatchLeases leases;
+    @Inject
+    BatchChangeWatcher watcher;
+
+    private final AtomicLong scans = new AtomicLong();
+    private final AtomicLong stalledBatches = new AtomicLong();
+    private final AtomicLong requeuedRows = new AtomicLong();
+    private volatile Instant lastRecoveryAt;
+
+    @Scheduled(every = "${app.processing.watchdog.interval:1m}", identity = "stuck-batch-watchdog",
+            concurrentExecution = SKIP)
+    @ActivateRequestContext
+    void scan() {
+        if (!leases.acquire(LEASE_KEY)) return;
+        try {
+            scans.incrementAndGet();
+            Instant cutoff = Instant.now().minus(Duration.ofMinutes(stuckTimeoutMinutes));
+            List<FileBatch> stale = FileBatch.list("status = ?1 and processingTimestamp < ?2",
+                    FileBatch.STATUS_PROCESSING, cutoff);
+            for (FileBatch batch : stale) {
+                try {
+                    inspect(batch, cutoff);
+                } catch (Exception e) {
+                    Log.errorf(e, "[WATCHDOG] [%s] inspection failed", batch.id);
+                }
+            }
+        } finally {
+            leases.release(LEASE_KEY);
+        }
+    }
+
+    private void inspect(FileBatch batch, Instant cutoff) {
+        if (leases.isHeldAnywhere(BatchLeases.batchKey(batch.id))) {
+            // Owner alive — only rows whose claim is older than the timeout are stuck
+            long rows = BatchData.requeueClaimed(batch.id, cutoff);
+            if (rows == 0) return;
+            record(rows, false);
+            Log.warnf("[WATCHDOG] [%s] %d row(s) CLAIMED since before %s → PENDING", batch.id, rows, cutoff);
+            ProcessingLogEntry.log(batch.id, "WARN", String.format(
+                    "Watchdog : %d ligne(s) bloquée(s) depuis plus de %d min relancée(s)",
+                    rows, stuckTimeoutMinutes));
+            return;
+        }
+
+        // Owner gone — every CLAIMED row is orphaned; restart the channel now
+        long rows = BatchData.requeueClaimed(batch.id, null);
+        record(rows, true);
+        Log.warnf("[WATCHDOG] [%s] stalled since %s (no lease) — %d CLAIMED row(s) → PENDING, restarting",
+                batch.id, batch.processingTimestamp, rows);
+        ProcessingLogEntry.log(batch.id, "WARN", String.format(
+                "Watchdog : lot bloqué depuis %s sans nœud actif, %d ligne(s) relancée(s)",
+                batch.processingTimestamp, rows));
+        watcher.dispatch(batch);
+    }
+
+    private void record(long rows, boolean batchStalled) {
+        if (batchStalled) stalledBatches.incrementAndGet();
+        requeuedRows.addAndGet(rows);
+        lastRecoveryAt = Instant.now();
+    }
+
+    public Snapshot snapshot() {
+        return new Snapshot(stuckTimeoutMinutes, scans.get(), stalledBatches.get(), requeuedRows.get(),
+                lastRecoveryAt);
+    }
+
+    /**
+     * Counters since this node started.
+     */
+    public record Snapshot(int stuckTimeoutMinutes, long scans, long stalledBatches, long requeuedRows,
+                           Instant lastRecoveryAt) {
+    }
+}
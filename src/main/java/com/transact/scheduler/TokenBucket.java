@@ -0,0 +1,52 @@
+package com.transact.scheduler;
+
+/**
+ * Token bucket: {@code rate} tokens per second, at most {@code burst} saved up.
+ * <p>
+ * {@link #reserve()} always takes a token and returns how long the caller must wait
+ * before using it (the balance may go negative), so waiters are served in arrival
+ * order and the sleep happens outside the lock.
+ */
+final class TokenBucket {
+
+    private double rate;
+    private double burst;
+    private double tokens;
+    private long lastRefill = System.nanoTime();
+
+    TokenBucket(double rate, int burst) {
+        configure(rate, burst);
+        this.tokens = this.burst;
+    }
+
+    synchronized void configure(double rate, int burst) {
+        refill();
+        this.rate = rate;
+        this.burst = burst > 0 ? burst : Math.max(1, Math.ceil(rate));
+        this.tokens = Math.min(tokens, this.burst);
+    }
+
+    /**
+     * Takes one token; returns the nanoseconds to wait until it is actually available.
+     */
+    synchronized long reserve() {
+        refill();
+        tokens -= 1;
+        return tokens >= 0 ? 0 : (long) (-tokens / rate * 1_000_000_000L);
+    }
+
+    synchronized double rate() {
+        return rate;
+    }
+
+    synchronized double available() {
+        refill();
+        return tokens;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        if (rate > 0) tokens = Math.min(burst, tokens + (now - lastRefill) / 1_000_000_000.0 * rate);
+        lastRefill = now;
+    }
+}
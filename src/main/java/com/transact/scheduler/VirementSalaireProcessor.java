@@ -1,34 +1,22 @@
 package com.transact.scheduler;
 
 import com.api.client.*;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.mongodb.client.model.Filters;
 import com.mongodb.client.model.Updates;
 import com.transact.processor.model.*;
-import com.transact.service.EmailService;
 import io.quarkus.logging.Log;
-import io.quarkus.panache.common.Parameters;
 import io.quarkus.scheduler.Scheduled;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.enterprise.context.control.ActivateRequestContext;
 import jakarta.inject.Inject;
-import jakarta.ws.rs.WebApplicationException;
 import jakarta.ws.rs.core.Response;
-import org.bson.types.ObjectId;
-import org.eclipse.microprofile.config.inject.ConfigProperty;
-import org.eclipse.microprofile.context.ManagedExecutor;
 import org.eclipse.microprofile.rest.client.inject.RestClient;
 
 import java.math.BigDecimal;
 import java.time.Instant;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Optional;
-import java.util.UUID;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.Semaphore;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Stream;
 
 import static io.quarkus.scheduler.Scheduled.ConcurrentExecution.SKIP;
 
@@ -44,28 +32,23 @@ import static io.quarkus.scheduler.Scheduled.ConcurrentExecution.SKIP;
  *   <li><b>Step 2 (disbursement)</b>: from the transit account, pay each beneficiary
  *       the net amount — internal beneficiaries via FT, external via SICA.</li>
  * </ol>
- * Batches are naturally serialized (sequential batch loop + {@code SKIP}), which
- * satisfies the shared-transit requirement. All references are deterministic so a
- * crash-resume is idempotent.
+ * Batches are serialized (sequential batch loop + {@code SKIP} on one node, the
+ * application lease across nodes), which satisfies the shared-transit requirement.
+ * Row references are deterministic so a crash-resume is idempotent. Step 1 carries no
+ * such reference: when its outcome is unknown the batch is parked for manual review
+ * instead of being sent again.
  */
 @ApplicationScoped
-public class VirementSalaireProcessor {
+public class VirementSalaireProcessor implements GatewayChannel<VirementSalaireProcessor.VirsalRun, VirementSalaireProcessor.Disbursement> {
 
     private static final String FEATURE_KEY = "VIREMENT_SALAIRE";
     private static final Pattern FILENAME =
             Pattern.compile("^VIR_([A-Za-z0-9]+)_(\\d{8})_(\\d{3})\\.csv$", Pattern.CASE_INSENSITIVE);
 
-    @ConfigProperty(name = "app.base-url", defaultValue = "http://localhost:8080")
-    String baseUrl;
-
     @Inject
     com.transact.service.VirementSalaireBillingService billingService;
     @Inject
-    EmailService emailService;
-    @Inject
-    ObjectMapper objectMapper;
-    @Inject
-    ManagedExecutor managedExecutor;
+    RowDispatchEngine engine;
     @Inject
     @RestClient
     ProcessingFt processingFt;
@@ -81,200 +64,203 @@ public class VirementSalaireProcessor {
     @Scheduled(every = "1m", identity = "virement-salaire-processor", concurrentExecution = SKIP)
     @ActivateRequestContext
     public void run() {
-        Application app = Application.findByName(FEATURE_KEY);
-        if (app == null) {
-            ProcessingLogEntry.log("ERROR", "[VIRSAL] Application config missing: " + FEATURE_KEY);
-            return;
-        }
-        if (!AppFeatureConfig.isFeatureEnabled(FEATURE_KEY)) return;
-
-        List<FileBatch> batches = FileBatch.list(
-                "status in :statuses and applicationId = :appId",
-                Parameters.with("statuses", List.of(FileBatch.STATUS_VALIDATED, FileBatch.STATUS_PROCESSING))
-                        .and("appId", app.id));
-        if (batches.isEmpty()) return;
-
-        Log.infof("[VIRSAL] %d batch(es) to process", batches.size());
-        for (FileBatch batch : batches) {
-            try {
-                processBatch(batch.id);
-            } catch (Exception e) {
-                Log.errorf(e, "[%s] VIRSAL CRITICAL_BATCH_FAILURE: %s", batch.id, e.getMessage());
-                ProcessingLogEntry.log(batch.id, "ERROR", "CRITICAL_BATCH_FAILURE: " + e.getMessage());
-            }
-        }
+        engine.poll(this);
     }
 
-    // ── Batch processing ──────────────────────────────────────────────────────
+    // ── Channel ───────────────────────────────────────────────────────────────
 
-    private void processBatch(ObjectId batchId) {
-        FileBatch batch = FileBatch.findById(batchId);
-        if (batch == null) return;
+    @Override
+    public String featureKey() {
+        return FEATURE_KEY;
+    }
 
-        // Country / company
-        String country = AppUser.findByUsername(batch.validatedById).map(AppUser::getCountryCode).orElse(null);
-        if (country == null) {
-            Log.errorf("[%s] VIRSAL validator country not found", batchId);
-            return;
-        }
-        String companyId = Country.findByCode(country);
-        if (companyId == null) {
-            Log.errorf("[%s] VIRSAL company id not found for country %s", batchId, country);
-            return;
-        }
+    @Override
+    public String tag() {
+        return "VIRSAL";
+    }
+
+    /**
+     * Fully DB-driven (Settings → Paie).
+     */
+    @Override
+    public int maxThreads() {
+        return VirementSalaireSettings.get().maxThreads;
+    }
+
+    @Override
+    public String gatewayKey() {
+        return "funds-transfer-api";
+    }
+
+    /**
+     * Internal legs go to FT, external disbursements to the (Senegal) SICA gateway.
+     */
+    @Override
+    public String gatewayKey(Disbursement d, VirsalRun v) {
+        if (!d.external) return gatewayKey();
+        return v.isSenegal ? "funds-transfer-uemoa-sn-api" : "funds-transfer-uemoa-api";
+    }
+
+    /**
+     * Batches share the transit account — one VIRSAL batch at a time across all nodes.
+     */
+    @Override
+    public boolean serialBatches() {
+        return true;
+    }
+
+    @Override
+    public String gatewayName() {
+        return "gateway";
+    }
+
+    @Override
+    public VirsalRun open(BatchRun run) {
+        FileBatch batch = run.batch;
 
         // File name → debit account + value date + batch reference
         Matcher m = (batch.originalFilename != null) ? FILENAME.matcher(batch.originalFilename) : null;
         if (m == null || !m.matches()) {
-            failWholeBatch(batchId, "Invalid file name (expected VIR_DEBITACCTNO_YYYYMMDD_INDEX.csv): " + batch.originalFilename);
-            return;
+            engine.failBatch(run.batchId, "VIRSAL",
+                    "Invalid file name (expected VIR_DEBITACCTNO_YYYYMMDD_INDEX.csv): " + batch.originalFilename);
+            return null;
         }
-        String debitAcctNo = m.group(1);
-        String valueDate = m.group(2);
-        String batchRef = "VIR-" + debitAcctNo + "-" + valueDate + "-" + m.group(3);
 
         // Fully DB-driven config (no application.properties)
         VirementSalaireSettings settings = VirementSalaireSettings.get();
 
         // Transit account (admin-managed, per company)
-        String transitAccount = VirementSalaireConfig.transitAccountFor(companyId);
-        String internalPrefix = settings.internalPrefixFor(country);
+        String transitAccount = VirementSalaireConfig.transitAccountFor(run.companyId);
         if (transitAccount == null) {
             // Configuration error, not a data error → leave the batch VALIDATED so it
             // resumes automatically once the transit account is set (Settings → Paie).
             Log.errorf("[%s] No transit account configured for company %s — batch left VALIDATED "
-                    + "(set it in Settings → Paie)", batchId, companyId);
-            ProcessingLogEntry.log(batchId, "ERROR",
-                    "Compte de transit non configuré pour la société " + companyId
+                    + "(set it in Settings → Paie)", run.batchId, run.companyId);
+            ProcessingLogEntry.log(run.batchId, "ERROR",
+                    "Compte de transit non configuré pour la société " + run.companyId
                             + " — configurez-le (Paramètres → Paie) ; le lot repartira automatiquement.");
-            return;
+            return null;
         }
 
+        VirsalRun v = new VirsalRun();
+        v.settings = settings;
+        v.debitAcctNo = m.group(1);
+        v.valueDate = m.group(2);
+        v.batchRef = "VIR-" + v.debitAcctNo + "-" + v.valueDate + "-" + m.group(3);
+        v.transitAccount = transitAccount;
+        v.internalPrefix = settings.internalPrefixFor(run.country);
+        v.isSenegal = settings.snCountryCode != null && settings.snCountryCode.equalsIgnoreCase(run.country);
+        return v;
+    }
+
+    /**
+     * Control totals + Step 1 (gate). Step 2 is the engine's row loop.
+     */
+    @Override
+    public boolean beforeRows(BatchRun run, VirsalRun v) {
+        FileBatch batch = run.batch;
+        VirementSalaireSettings settings = v.settings;
+
         String billingMode = (batch.billingMode != null) ? batch.billingMode : settings.billingDefaultMode;
         BigDecimal flatFee = (batch.flatFeeAmount != null) ? batch.flatFeeAmount : settings.flatFeeDefault;
-        boolean isSenegal = settings.snCountryCode != null && settings.snCountryCode.equalsIgnoreCase(country);
-
-        recoverRows(batchId);
-
-        // Claim the batch: VALIDATED|PROCESSING → PROCESSING
-        long updated = FileBatch.mongoCollection().updateOne(
-                Filters.and(Filters.eq("_id", batchId),
-                        Filters.in("status", FileBatch.STATUS_VALIDATED, FileBatch.STATUS_PROCESSING)),
-                Updates.combine(Updates.set("status", FileBatch.STATUS_PROCESSING),
-                        Updates.set("processingTimestamp", Instant.now()))
-        ).getModifiedCount();
-        if (updated == 0) return;
-
-        List<BatchData> rows = BatchData.findByBatchId(batchId);
-        if (rows.isEmpty()) {
-            finalizeBatch(batchId, BigDecimal.ZERO);
-            return;
-        }
 
         // ── Control totals (same computation the user approved via /billing) ──
-        var billing = billingService.compute(rows, billingMode, flatFee, internalPrefix);
+        com.transact.service.VirementSalaireBillingService.Billing billing;
+        try (Stream<BatchData> rows = BatchData.streamByBatchId(run.batchId)) {
+            billing = billingService.compute(rows::iterator, billingMode, flatFee, v.internalPrefix);
+        }
+        if (billing.totalRows == 0) return true;
         BigDecimal z = billing.netTotalZ;
         int externalCount = billing.externalCount;
         BigDecimal fees = billing.feesTotal;
         BigDecimal a = billing.grandTotalA;
+        v.z = z;
 
-        ProcessingLogEntry.log(batchId, "INFO", String.format(
+        ProcessingLogEntry.log(run.batchId, "INFO", String.format(
                 "VIRSAL %s | mode=%s Z=%s X=%d fees=%s A=%s transit=%s debit=%s",
-                batchRef, billingMode, z.toPlainString(), externalCount, fees.toPlainString(),
-                a.toPlainString(), transitAccount, debitAcctNo));
+                v.batchRef, billingMode, z.toPlainString(), externalCount, fees.toPlainString(),
+                a.toPlainString(), v.transitAccount, v.debitAcctNo));
 
         // ── Step 1 (gate): company → transit for Z. For paying modes, the fees
         //    are charged on the same movement via T24 commission
         //    (COMMISSION.CODE = "DEBIT PLUS CHARGES", COMMISSION.AMT = fees),
         //    so the company is debited Z + fees and the transit receives exactly Z. ──
+        if (!batch.virsalStep1Done && batch.virsalStep1Unconfirmed != null) {
+            engine.failBatch(run.batchId, "VIRSAL", "Step 1 (company→transit) sent on "
+                    + batch.virsalStep1Unconfirmed + " without a reply — check T24 and confirm or clear it before reprocessing");
+            return false;
+        }
         if (!batch.virsalStep1Done) {
-            TransactionRequest s1req = buildFt(settings, debitAcctNo, transitAccount, z,
-                    batchRef, null, valueDate);   // no debitTheirRef on the first FT
+            TransactionRequest s1req = buildFt(settings, v.debitAcctNo, v.transitAccount, z,
+                    v.batchRef, null, v.valueDate);   // no debitTheirRef on the first FT
             boolean charged = fees.compareTo(BigDecimal.ZERO) > 0;
             if (charged) {
                 s1req.body.commissionCode = settings.commissionCode;   // e.g. "DEBIT PLUS CHARGES"
                 s1req.body.commissionAmt = fees;              // amount to be paid
             }
 
-            String s1payload = serialize(s1req);
-            CallOutcome s1 = callFt(s1req, batchRef + "-S1", companyId, "[" + batchId + "|S1]", s1payload);
+            String corr = v.batchRef + "-S1";
+            Disbursement s1call = new Disbursement(false, s1req);
+            String s1payload = engine.serialize(s1req);
+            RowDispatchEngine.Outcome s1 = engine.exchange(this, gatewayKey(s1call, v), run.companyId, corr,
+                    () -> send(s1call, corr, run, v));
+            if (!s1.ok && s1.maybeApplied) {
+                // Timeout / 502 / 504: T24 may have debited the company account. Sending it
+                // again could move Z twice — park the batch until someone checks T24.
+                FileBatch.mongoCollection().updateOne(Filters.eq("_id", run.batchId),
+                        Updates.set("virsalStep1Unconfirmed", Instant.now()));
+                engine.failBatch(run.batchId, "VIRSAL", "Step 1 (company→transit) outcome unknown: " + s1.error
+                        + " — check T24 for the movement of " + z.toPlainString() + " from " + v.debitAcctNo
+                        + " and confirm or clear it before reprocessing");
+                return false;
+            }
+            if (!s1.ok && s1.retryable) {
+                // Not sent, or refused before processing (circuit open, 408, 429, 503):
+                // nothing was moved, the batch stays PROCESSING and step 1 is tried again
+                // on the next run.
+                ProcessingLogEntry.log(run.batchId, "WARN",
+                        "VIRSAL step1 (company→transit) transient failure, will retry: " + s1.error);
+                return false;
+            }
             if (!s1.ok) {
-                ProcessingLogEntry.log(batchId, "ERROR",
+                ProcessingLogEntry.log(run.batchId, "ERROR",
                         "VIRSAL step1 (company→transit) failed: " + s1.error
                                 + " | Payload: " + s1payload + " | Response: " + s1.raw);
-                failWholeBatch(batchId, "Step 1 failed: " + s1.error);
-                return;
+                engine.failBatch(run.batchId, "VIRSAL", "Step 1 failed: " + s1.error);
+                return false;
             }
-            FileBatch.mongoCollection().updateOne(Filters.eq("_id", batchId),
+            FileBatch.mongoCollection().updateOne(Filters.eq("_id", run.batchId),
                     Updates.combine(Updates.set("virsalStep1Done", true),
                             Updates.set("virsalStep1Ref", s1.ref),
                             Updates.set("virsalFeeCollected", charged ? Boolean.TRUE : null)));
             Log.infof("[%s] VIRSAL step1 OK: %s | fees=%s (%s)",
-                    batchId, s1.ref, fees.toPlainString(), charged ? settings.commissionCode : "free");
+                    run.batchId, s1.ref, fees.toPlainString(), charged ? settings.commissionCode : "free");
         }
-
-        // ── Step 2 (disbursement) ──────────────────────────────────────────
-        List<BatchData> pending = BatchData.findPendingByBatchId(batchId);
-        Semaphore limiter = new Semaphore(Math.max(1, settings.maxThreads));
-        List<CompletableFuture<Void>> futures = new ArrayList<>();
-        String workerId = UUID.randomUUID().toString();
-
-        for (BatchData row : pending) {
-            try {
-                limiter.acquire();
-                futures.add(CompletableFuture.runAsync(() -> {
-                    try {
-                        String finalTransitAccount = transitAccount;
-                        disburse(settings, row, workerId, batchId, companyId, finalTransitAccount,
-                                internalPrefix, batchRef, valueDate, isSenegal);
-                    } catch (Exception e) {
-                        Log.errorf(e, "[%s|Row:%d] VIRSAL unexpected error — forcing FAILED", batchId, row.lineNumber);
-                        BatchData.update("processingStatus = 'FAILED'")
-                                .where("_id = ?1 and processingStatus = 'CLAIMED'", row.id);
-                    } finally {
-                        limiter.release();
-                    }
-                }, managedExecutor));
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                break;
-            }
-        }
-        if (!futures.isEmpty()) {
-            try {
-                CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
-            } catch (Exception ignored) {
-            }
-        }
-
-        BatchData.update("processingStatus = 'FAILED'")
-                .where("batchId = ?1 and processingStatus = 'CLAIMED'", batchId);
-
-        finalizeBatch(batchId, z);
+        return true;
     }
 
-    // ── Disbursement (one beneficiary) ─────────────────────────────────────────
+    /**
+     * Deterministic per-row reference — a crash-resume replays the same id.
+     */
+    @Override
+    public String correlationId(BatchData row, BatchRun run, VirsalRun v) {
+        return v.batchRef + "-R" + row.lineNumber;
+    }
 
-    private void disburse(VirementSalaireSettings settings, BatchData row, String workerId, ObjectId batchId, String companyId,
-                          String transitAccount, String internalPrefix, String batchRef,
-                          String valueDate, boolean isSenegal) {
-        if (!BatchData.claimRow(row.id, workerId)) return;
+    // ── Step 2 (disbursement, one beneficiary) ─────────────────────────────────
 
-        String ctx = String.format("[%s|Row:%d]", batchId, row.lineNumber);
-        String rowRef = batchRef + "-R" + row.lineNumber;
+    @Override
+    public Disbursement toPayload(BatchData row, BatchRun run, VirsalRun v) {
+        String rowRef = correlationId(row, run, v);
         String benAcct = beneficiaryAcct(row);
         BigDecimal amt = amount(row);
         String details = str(row, "PAYMENT.DETAILS");
-        boolean external = isExternal(benAcct, internalPrefix);
-        String channel = external ? "SICA" : "FT";
-        String payload;
-        CallOutcome outcome;
 
-        if (external) {
+        if (isExternal(benAcct, v.internalPrefix)) {
             // External → SICA (debit = transit, beneficiary gets the net amount)
             SicaTransferRequest req = new SicaTransferRequest();
             req.body.requestId = rowRef;
-            req.body.debitAccountId = transitAccount;
+            req.body.debitAccountId = v.transitAccount;
             req.body.transactionAmount = amt.toPlainString();
             req.body.beneficiaryAccountId = benAcct;
             req.body.beneficiaryName = str(row, "L.BEN.NAME");
@@ -282,88 +268,52 @@ public class VirementSalaireProcessor {
             req.body.transactionDescription = details;
             String motif = str(row, "L.FT.MOTIF.ECO");
             req.body.transactionObject = (motif != null) ? motif : "400";
-            payload = serialize(req);
-            outcome = callSica(req, rowRef, companyId, isSenegal, ctx, payload);
-        } else {
-            // Internal → FT (transit → beneficiary)
-            TransactionRequest req = buildFt(settings, transitAccount, benAcct, amt, details, rowRef, valueDate);
-            payload = serialize(req);
-            outcome = callFt(req, rowRef, companyId, ctx, payload);
-        }
-
-        if (outcome.ok) {
-            Log.infof("%s VIRSAL SUCCESS (%s): %s", ctx, external ? "ext" : "int", outcome.ref);
-            completeRow(batchId, row, outcome.ref);
-        } else {
-            ProcessingLogEntry.log(batchId, "ERROR", String.format(
-                    "Row %d failed [%s]: %s | Payload: %s | Response: %s",
-                    row.lineNumber, channel, outcome.error, payload, outcome.raw));
-            failRow(batchId, row, outcome.error);
+            return new Disbursement(true, req);
         }
+        // Internal → FT (transit → beneficiary)
+        return new Disbursement(false,
+                buildFt(v.settings, v.transitAccount, benAcct, amt, details, rowRef, v.valueDate));
     }
 
-    // ── T24 calls ──────────────────────────────────────────────────────────────
+    @Override
+    public Response send(Disbursement d, String corr, BatchRun run, VirsalRun v) {
+        if (Log.isDebugEnabled())
+            Log.debugf("[%s] → POST %s | corr=%s companyId=%s | request=%s", run.batchId,
+                    urlFor(d.external ? (v.isSenegal ? "SICA_SN" : "SICA") : "FT"),
+                    corr, run.companyId, engine.serialize(d.request));
+        if (!d.external)
+            return processingFt.processTransaction((TransactionRequest) d.request, corr, run.companyId);
+        SicaTransferRequest req = (SicaTransferRequest) d.request;
+        return v.isSenegal
+                ? processingSicaSn.sicaTransferSn(req, corr, run.companyId)
+                : processingSica.sicaTransfer(req, corr, run.companyId);
+    }
 
-    private CallOutcome callFt(TransactionRequest req, String corr, String companyId, String ctx, String payload) {
-        String url = urlFor("FT");
-        Log.infof("%s → POST %s | corr=%s companyId=%s | request=%s", ctx, url, corr, companyId, payload);
-        try {
-            Response response;
-            try {
-                response = processingFt.processTransaction(req, corr, companyId);
-            } catch (WebApplicationException e) {
-                response = e.getResponse();
-            }
-            return parse(response, ctx, url);
-        } catch (Exception e) {
-            String err = extractErrorMessage(e);
-            Log.errorf("%s ✗ EXCEPTION %s | %s", ctx, url, err);
-            return CallOutcome.fail(err, null);
-        }
+    @Override
+    public void onReply(String corr, int httpStatus, ProcessingResponse reply) {
+        Log.debugf("[%s] ← HTTP %d | id=%s error=%s", corr, httpStatus,
+                reply != null && reply.header != null ? reply.header.id : null,
+                reply != null ? reply.getErrorMessage() : "empty body");
     }
 
-    private CallOutcome callSica(SicaTransferRequest req, String corr, String companyId, boolean isSenegal,
-                                 String ctx, String payload) {
-        String url = urlFor(isSenegal ? "SICA_SN" : "SICA");
-        Log.infof("%s → POST %s | corr=%s companyId=%s | request=%s", ctx, url, corr, companyId, payload);
-        try {
-            Response response;
-            try {
-                response = isSenegal
-                        ? processingSicaSn.sicaTransferSn(req, corr, companyId)
-                        : processingSica.sicaTransfer(req, corr, companyId);
-            } catch (WebApplicationException e) {
-                response = e.getResponse();
-            }
-            return parse(response, ctx, url);
-        } catch (Exception e) {
-            String err = extractErrorMessage(e);
-            Log.errorf("%s ✗ EXCEPTION %s | %s", ctx, url, err);
-            return CallOutcome.fail(err, null);
-        }
+    @Override
+    public Object loggable(Disbursement d) {
+        return d.request;
     }
 
-    private CallOutcome parse(Response response, String ctx, String url) throws Exception {
-        if (response == null) {
-            Log.warnf("%s ← no response from %s", ctx, url);
-            return CallOutcome.fail("No response from gateway", null);
-        }
-        try (Response resp = response) {
-            int status = resp.getStatus();
-            String body = resp.readEntity(String.class);
-            Log.infof("%s ← HTTP %d %s | response=%s", ctx, status, url, body);
-            if (body == null || body.isBlank())
-                return CallOutcome.fail("Empty response body (HTTP " + status + ")", body);
-            ProcessingResponse res = objectMapper.readValue(body, ProcessingResponse.class);
-            if (status < 400 && res.isSuccessful()) {
-                return CallOutcome.ok(res.header != null ? res.header.id : "N/A", body);
-            }
-            String err = res.getErrorMessage();
-            if (err != null && err.contains("already Exists")) {
-                return CallOutcome.ok(res.header != null ? res.header.id : "EXISTING", body);
-            }
-            return CallOutcome.fail(err != null ? err : "HTTP " + status, body);
+    // ── Reconciliation ───────────────────────────────────────────────────────────
+
+    @Override
+    public void afterFinalize(BatchRun run, VirsalRun v, String status) {
+        // Reconciliation: disbursed (sum of successful rows) vs Z; stranded in transit
+        BigDecimal disbursed;
+        try (Stream<BatchData> done = BatchData.streamByBatchId(run.batchId, "COMPLETED")) {
+            disbursed = done.map(this::amount).reduce(BigDecimal.ZERO, BigDecimal::add);
         }
+        BigDecimal stranded = v.z.subtract(disbursed);
+        ProcessingLogEntry.log(run.batchId, stranded.signum() == 0 ? "INFO" : "WARN",
+                String.format("VIRSAL reconciliation: Z=%s disbursed=%s stranded_in_transit=%s",
+                        v.z.toPlainString(), disbursed.toPlainString(), stranded.toPlainString()));
     }
 
     /**
@@ -405,111 +355,6 @@ public class VirementSalaireProcessor {
         return req;
     }
 
-    // ── Row state transitions ───────────────────────────────────────────────────
-
-    private void completeRow(ObjectId batchId, BatchData row, String ref) {
-        try {
-            if (RowResult.count("batchId = ?1 and lineNumber = ?2", batchId, row.lineNumber) == 0)
-                new RowResult(batchId, row.lineNumber, "SUCCESS", ref, null).persist();
-        } catch (Exception ignored) {
-        }
-        BatchData.update("processingStatus = 'COMPLETED'")
-                .where("_id = ?1 and processingStatus != 'COMPLETED'", row.id);
-    }
-
-    private void failRow(ObjectId batchId, BatchData row, String err) {
-        try {
-            if (RowResult.count("batchId = ?1 and lineNumber = ?2", batchId, row.lineNumber) == 0)
-                new RowResult(batchId, row.lineNumber, "FAILED", null, err).persist();
-        } catch (Exception ignored) {
-        }
-        BatchData.update("processingStatus = 'FAILED'")
-                .where("_id = ?1 and processingStatus = 'CLAIMED'", row.id);
-    }
-
-    private void recoverRows(ObjectId batchId) {
-        long claimed = BatchData.update("processingStatus = 'PENDING', workerId = null")
-                .where("batchId = :batchId and processingStatus = 'CLAIMED'",
-                        Parameters.with("batchId", batchId));
-        if (claimed > 0)
-            Log.warnf("[%s] VIRSAL recovered %d CLAIMED row(s) → PENDING", batchId, claimed);
-    }
-
-    private void failWholeBatch(ObjectId batchId, String reason) {
-        Log.errorf("[%s] VIRSAL %s", batchId, reason);
-        ProcessingLogEntry.log(batchId, "ERROR", reason);
-        FileBatch.mongoCollection().updateOne(
-                Filters.and(Filters.eq("_id", batchId),
-                        Filters.in("status", FileBatch.STATUS_VALIDATED, FileBatch.STATUS_PROCESSING)),
-                Updates.combine(Updates.set("status", FileBatch.STATUS_PROCESSED_FAILED),
-                        Updates.set("processingTimestamp", Instant.now())));
-    }
-
-    // ── Finalization + reconciliation ────────────────────────────────────────────
-
-    private void finalizeBatch(ObjectId batchId, BigDecimal z) {
-        long total = BatchData.count("batchId", batchId);
-        if (total == 0) return;
-
-        long completed = BatchData.count("batchId = ?1 and processingStatus = ?2", batchId, "COMPLETED");
-        long failed = BatchData.count("batchId = ?1 and processingStatus in ?2",
-                batchId, List.of("FAILED", "FAILED_PERMANENT", "NO_RESPONSE"));
-        if (completed + failed < total) return;
-
-        String status = (failed == 0) ? FileBatch.STATUS_PROCESSED
-                : (completed > 0) ? FileBatch.STATUS_PROCESSED_PARTIAL
-                  : FileBatch.STATUS_PROCESSED_FAILED;
-
-        long updated = FileBatch.mongoCollection().updateOne(
-                Filters.and(Filters.eq("_id", batchId), Filters.eq("status", FileBatch.STATUS_PROCESSING)),
-                Updates.combine(Updates.set("status", status), Updates.set("processingTimestamp", Instant.now()))
-        ).getModifiedCount();
-        if (updated == 0) return;
-
-        // Reconciliation: disbursed (sum of successful rows) vs Z; stranded in transit
-        List<BatchData> done = BatchData.list("batchId = ?1 and processingStatus = ?2", batchId, "COMPLETED");
-        BigDecimal disbursed = done.stream().map(this::amount).reduce(BigDecimal.ZERO, BigDecimal::add);
-        BigDecimal stranded = z.subtract(disbursed);
-        ProcessingLogEntry.log(batchId, stranded.signum() == 0 ? "INFO" : "WARN",
-                String.format("VIRSAL reconciliation: Z=%s disbursed=%s stranded_in_transit=%s",
-                        z.toPlainString(), disbursed.toPlainString(), stranded.toPlainString()));
-
-        BatchStatistics stats = new BatchStatistics();
-        stats.id = batchId;
-        stats.totalRecords = total;
-        stats.successCount = completed;
-        stats.failureCount = failed;
-        stats.batchStatus = status;
-        stats.lastUpdatedAt = Instant.now();
-        stats.persistOrUpdate();
-
-        Log.infof("[%s] VIRSAL FINALIZED → %s | total=%d success=%d failure=%d",
-                batchId, status, total, completed, failed);
-        sendCompletionAsync(batchId, status, stats);
-    }
-
-    private void sendCompletionAsync(ObjectId batchId, String status, BatchStatistics stats) {
-        try {
-            FileBatch batch = FileBatch.findById(batchId);
-            if (batch == null) return;
-            AppUser uploader = AppUser.findByUsername(batch.uploadedById).orElse(null);
-            if (uploader == null || uploader.email == null || uploader.email.isBlank()) return;
-            final String to = uploader.email, user = uploader.getUsername();
-            final String file = batch.originalFilename != null ? batch.originalFilename : batchId.toHexString();
-            final String url = baseUrl + "/batches";
-            final long t = stats.totalRecords, s = stats.successCount, f = stats.failureCount;
-            managedExecutor.runAsync(() -> {
-                try {
-                    emailService.sendBatchCompletion(to, user, file, FEATURE_KEY, status, t, s, f, url);
-                } catch (Exception e) {
-                    Log.warnf(e, "[%s] VIRSAL completion email failed", batchId);
-                }
-            });
-        } catch (Exception e) {
-            Log.warnf(e, "[%s] VIRSAL error preparing completion email", batchId);
-        }
-    }
-
     // ── Helpers ──────────────────────────────────────────────────────────────────
 
     private boolean isExternal(String benAcct, String internalPrefix) {
@@ -541,53 +386,29 @@ public class VirementSalaireProcessor {
     }
 
     /**
-     * Serialize an outgoing T24 request for troubleshooting logs.
+     * Per-batch state resolved from the file name and the payroll settings.
      */
-    private String serialize(Object req) {
-        try {
-            return objectMapper.writeValueAsString(req);
-        } catch (Exception e) {
-            return "[serialization error: " + e.getMessage() + "]";
-        }
-    }
-
-    private String extractErrorMessage(Throwable t) {
-        if (t == null) return "Unknown error";
-        if (t instanceof WebApplicationException w && w.getResponse() != null) {
-            try (Response resp = w.getResponse()) {
-                String body = resp.readEntity(String.class);
-                if (body != null && !body.isBlank()) {
-                    String err = objectMapper.readValue(body, ProcessingResponse.class).getErrorMessage();
-                    if (err != null) return err;
-                }
-            } catch (Exception ignored) {
-            }
-        }
-        return Optional.ofNullable(t.getMessage()).orElse(t.getClass().getSimpleName());
+    static final class VirsalRun {
+        VirementSalaireSettings settings;
+        String debitAcctNo;
+        String valueDate;
+        String batchRef;
+        String transitAccount;
+        String internalPrefix;
+        boolean isSenegal;
+        BigDecimal z = BigDecimal.ZERO;   // net total, set once control totals are computed
     }
 
     /**
-     * Small result holder for a single T24 call.
+     * One outgoing disbursement: a SICA request (external) or an FT request (internal).
      */
-    private static final class CallOutcome {
-        final boolean ok;
-        final String ref;
-        final String error;
-        final String raw;   // raw response body, for troubleshooting
-
-        private CallOutcome(boolean ok, String ref, String error, String raw) {
-            this.ok = ok;
-            this.ref = ref;
-            this.error = error;
-            this.raw = raw;
-        }
-
-        static CallOutcome ok(String ref, String raw) {
-            return new CallOutcome(true, ref, null, raw);
-        }
+    static final class Disbursement {
+        final boolean external;
+        final Object request;
 
-        static CallOutcome fail(String error, String raw) {
-            return new CallOutcome(false, null, error, raw);
+        Disbursement(boolean external, Object request) {
+            this.external = external;
+            this.request = request;
         }
     }
 }
@@ -5,6 +5,7 @@ import com.transact.processor.model.SchemaField;
 import io.quarkus.cache.CacheInvalidate;
 import io.quarkus.cache.CacheResult;
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
 import org.eclipse.microprofile.openapi.annotations.media.Schema;
 
 import java.util.ArrayList;
@@ -13,6 +14,9 @@ import java.util.List;
 @ApplicationScoped
 public class ApplicationService {
 
+    @Inject
+    SchemaMappers mappers;
+
     @CacheResult(cacheName = "applications")
     public ApplicationFieldsResponse getApplicationFields(Application app) {
         List<FieldDTO> mandatory = new ArrayList<>();
@@ -36,6 +40,7 @@ public class ApplicationService {
     @CacheInvalidate(cacheName = "applications")
     public void updateApplication(Application app) {
         app.persist(); // persists new or updates existing
+        mappers.invalidate(app.name);
     }
 
     /**
@@ -44,6 +49,7 @@ public class ApplicationService {
     @CacheInvalidate(cacheName = "applications")
     public void deleteApplication(Application app) {
         app.delete();
+        mappers.invalidate(app.name);
     }
 
     @Schema(name = "FieldDTO")
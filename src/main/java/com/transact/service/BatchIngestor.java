@@ -0,0 +1,238 @@
+package com.transact.service;
+
+import com.mongodb.client.model.InsertManyOptions;
+import com.transact.exception.FileTooLargeException;
+import com.transact.exception.ValidationError;
+import com.transact.exception.ValidationException;
+import com.transact.processor.model.Application;
+import com.transact.processor.model.BatchData;
+import io.quarkus.logging.Log;
+import io.quarkus.runtime.configuration.MemorySize;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.bson.types.ObjectId;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.context.ManagedExecutor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * BatchIngestor — streams an uploaded CSV into batch_data: each record is parsed,
+ * validated and added to a chunk of {@code com.transact.upload.insert-chunk-size} rows
+ * inserted with one insertMany. Memory stays bounded by the chunk, whatever the file
+ * size, and every row is written exactly once.
+ * <p>
+ * Large-file mode (files over {@code com.transact.upload.large-file.threshold}): chunks
+ * are inserted in the background while the next one is parsed, with at most
+ * {@code large-file.max-inflight-inserts} inserts outstanding. When Mongo falls behind
+ * the parser waits (backpressure), so memory stays bounded by the in-flight chunks.
+ * Rows are also validated a block at a time, on every core (see
+ * {@link FileValidator.Session#validateAll}), with the same errors in the same order.
+ * <p>
+ * Rows are written under the batch id chosen by the caller before the FileBatch itself
+ * exists, so nothing is visible until the caller persists the batch. Once a row fails
+ * validation nothing more is inserted (the rest of the file is still validated, to
+ * report every error) and the rows already written are removed.
+ */
+@ApplicationScoped
+public class BatchIngestor {
+
+    @ConfigProperty(name = "com.transact.upload.insert-chunk-size", defaultValue = "500")
+    int chunkSize;
+
+    @ConfigProperty(name = "com.transact.upload.large-file.threshold", defaultValue = "5M")
+    MemorySize largeFileThreshold;
+
+    @ConfigProperty(name = "com.transact.upload.large-file.max-inflight-inserts", defaultValue = "2")
+    int maxInFlightInserts;
+
+    @ConfigProperty(name = "com.transact.upload.large-file.validation-block-rows", defaultValue = "10000")
+    int validationBlockRows;
+
+    @Inject
+    FileParser fileParser;
+    @Inject
+    FileValidator fileValidator;
+    @Inject
+    ManagedExecutor managedExecutor;
+
+    /**
+     * @param sizeBytes size of the uploaded file, selects large-file mode
+     * @return number of rows ingested
+     * @throws ValidationException   the file is empty or invalid (no row left behind)
+     * @throws FileTooLargeException more than {@code maxLines} rows (no row left behind)
+     */
+    public long ingest(InputStream in, Application app, ObjectId batchId, int maxLines, long sizeBytes)
+            throws IOException {
+        boolean largeFile = sizeBytes > largeFileThreshold.asLongValue();
+        FileValidator.Session validation = fileValidator.session(app);
+        ChunkWriter writer = new ChunkWriter(largeFile ? new Semaphore(Math.max(1, maxInFlightInserts)) : null);
+        long start = System.nanoTime();
+        try {
+            ValidationBlock block = largeFile ? new ValidationBlock(validation, writer, batchId) : null;
+            long rows = fileParser.forEachRow(in, (raw, line) -> {
+                if (line - 1 > maxLines) throw new FileTooLargeException(maxLines);
+                if (block != null) {
+                    block.add(raw, line);
+                    return;
+                }
+                Map<String, Object> record = validation.validate(raw, line);
+                if (validation.hasErrors()) {
+                    writer.discardPending();
+                    return;
+                }
+                writer.add(row(batchId, line, record));
+            });
+            if (block != null) block.validate();
+            if (rows == 0) {
+                throw new ValidationException(List.of(new ValidationError(1, null, "CSV file is empty")));
+            }
+            validation.finish();
+            writer.flush();
+            writer.drain();
+            if (largeFile) {
+                Log.infof("[%s] %s large file: %d row(s) ingested in %d ms",
+                        batchId, app.name, rows, (System.nanoTime() - start) / 1_000_000);
+            }
+            return rows;
+        } catch (RuntimeException | IOException e) {
+            writer.awaitQuietly();
+            if (writer.sent > 0) discard(batchId);
+            throw e;
+        }
+    }
+
+    /**
+     * Removes the rows of a batch that will not be created.
+     */
+    public void discard(ObjectId batchId) {
+        long removed = BatchData.delete("batchId", batchId);
+        Log.debugf("[%s] ingestion aborted — %d row(s) removed", batchId, removed);
+    }
+
+    private BatchData row(ObjectId batchId, int line, Map<String, Object> record) {
+        BatchData bd = new BatchData();
+        bd.batchId = batchId;
+        bd.lineNumber = line;
+        bd.data = record;
+        bd.createdAt = Instant.now();
+        return bd;
+    }
+
+    /**
+     * Large-file mode: raw rows are collected into blocks of
+     * {@code large-file.validation-block-rows} and each block is validated in parallel
+     * ({@link FileValidator.Session#validateAll}) before its rows go to the writer.
+     */
+    private final class ValidationBlock {
+        private final FileValidator.Session validation;
+        private final ChunkWriter writer;
+        private final ObjectId batchId;
+        private final List<Map<String, String>> raws = new ArrayList<>(validationBlockRows);
+        private int firstLine;
+
+        ValidationBlock(FileValidator.Session validation, ChunkWriter writer, ObjectId batchId) {
+            this.validation = validation;
+            this.writer = writer;
+            this.batchId = batchId;
+        }
+
+        void add(Map<String, String> raw, int line) {
+            if (raws.isEmpty()) firstLine = line;
+            raws.add(raw);
+            if (raws.size() >= validationBlockRows) validate();
+        }
+
+        void validate() {
+            if (raws.isEmpty()) return;
+            List<Map<String, Object>> records = validation.validateAll(raws, firstLine);
+            if (validation.hasErrors()) {
+                writer.discardPending();
+            } else {
+                for (int i = 0; i < records.size(); i++) writer.add(row(batchId, firstLine + i, records.get(i)));
+            }
+            raws.clear();
+        }
+    }
+
+    /**
+     * Collects rows into chunks and inserts each full chunk on the caller's thread, or —
+     * with a semaphore — in the background, blocking the caller while every permit is
+     * taken by an insert in flight.
+     */
+    private final class ChunkWriter {
+        private final Semaphore inFlight;
+        private final int permits;
+        private final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        private List<BatchData> chunk = new ArrayList<>(chunkSize);
+        long sent;   // rows handed to insertMany, whether or not it completed
+
+        ChunkWriter(Semaphore inFlight) {
+            this.inFlight = inFlight;
+            this.permits = inFlight != null ? inFlight.availablePermits() : 0;
+        }
+
+        void add(BatchData row) {
+            chunk.add(row);
+            if (chunk.size() >= chunkSize) flush();
+        }
+
+        void discardPending() {
+            chunk.clear();
+        }
+
+        void flush() {
+            rethrow();
+            if (chunk.isEmpty()) return;
+            List<BatchData> rows = chunk;
+            chunk = new ArrayList<>(chunkSize);   // the written one may still be in flight
+            sent += rows.size();
+            if (inFlight == null) {
+                BatchData.mongoCollection().insertMany(rows);
+                return;
+            }
+            inFlight.acquireUninterruptibly();
+            try {
+                managedExecutor.execute(() -> {
+                    try {
+                        BatchData.mongoCollection().insertMany(rows, new InsertManyOptions().ordered(false));
+                    } catch (RuntimeException e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                inFlight.release();
+                throw e;
+            }
+        }
+
+        /**
+         * Waits for every insert in flight, then reports the first one that failed.
+         */
+        void drain() {
+            awaitQuietly();
+            rethrow();
+        }
+
+        void awaitQuietly() {
+            if (inFlight == null) return;
+            inFlight.acquireUninterruptibly(permits);
+            inFlight.release(permits);
+        }
+
+        private void rethrow() {
+            RuntimeException e = failure.get();
+            if (e != null) throw e;
+        }
+    }
+}
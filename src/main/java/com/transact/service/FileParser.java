@@ -3,6 +3,7 @@ package com.transact.service;
 import jakarta.enterprise.context.ApplicationScoped;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -16,20 +17,35 @@ import java.util.Map;
 @ApplicationScoped
 public class FileParser {
 
-    public List<Map<String, String>> parseCsv(InputStream inputStream) throws IOException {
-        if (inputStream == null) return List.of();
+    @FunctionalInterface
+    public interface RowHandler {
+        /**
+         * @param row  header → raw value
+         * @param line line number in the file (the header is line 1)
+         */
+        void accept(Map<String, String> row, int line);
+    }
+
+    /**
+     * Streams the CSV record by record — only the current row is ever held in memory.
+     *
+     * @return number of data rows read
+     */
+    public long forEachRow(InputStream inputStream, RowHandler handler) throws IOException {
+        if (inputStream == null) return 0;
 
         try (Reader reader = new InputStreamReader(inputStream, StandardCharsets.UTF_8);
              CSVParser parser = new CSVParser(reader, CSVFormat.DEFAULT.withFirstRecordAsHeader().withTrim())) {
 
-            return parser.getRecords().stream()
-                    .map(record -> {
-                        Map<String, String> map = new LinkedHashMap<>();
-                        parser.getHeaderMap().keySet().forEach(h ->
-                                map.put(h, record.get(h)));
-                        return map;
-                    })
-                    .toList();
+            List<String> headers = parser.getHeaderNames();
+            long rows = 0;
+            for (CSVRecord record : parser) {
+                Map<String, String> map = new LinkedHashMap<>(headers.size() * 2);   // keeps CSV column order
+                headers.forEach(h -> map.put(h, record.get(h)));
+                rows++;
+                handler.accept(map, (int) rows + 1);
+            }
+            return rows;
         }
     }
-}
\ No newline at end of file
+}
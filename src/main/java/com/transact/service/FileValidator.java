@@ -4,6 +4,7 @@ import com.transact.exception.ValidationError;
 import com.transact.exception.ValidationException;
 import com.transact.processor.model.Application;
 import com.transact.processor.model.SchemaField;
+import jakarta.annotation.PreDestroy;
 import jakarta.enterprise.context.ApplicationScoped;
 import org.bson.types.ObjectId;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
@@ -15,9 +16,10 @@ import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 
 @ApplicationScoped
 public class FileValidator {
@@ -30,27 +32,124 @@ public class FileValidator {
     int maxDecimalScale;
     @ConfigProperty(name = "app.validation.date.max-future-days", defaultValue = "0")  // No future dates
     int maxFutureDays;
+    // A 200k-line file can fail on every line: the report must still fit in the batch document
+    @ConfigProperty(name = "app.validation.max-reported-errors", defaultValue = "1000")
+    int maxReportedErrors;
+    // Parallel (fork-join) validation, see Session#validateAll
+    @ConfigProperty(name = "app.validation.parallel.leaf-rows", defaultValue = "1000")
+    int parallelLeafRows;
+    @ConfigProperty(name = "app.validation.parallel.threads", defaultValue = "0")  // 0 = one per core
+    int parallelism;
+    private volatile ForkJoinPool pool;
+
+    /**
+     * Row-by-row validation of one file, for streaming ingestion: rows are validated as
+     * they are read and only batch-level totals are kept.
+     */
+    public Session session(Application config) {
+        return new Session(config, getOrCreateSchemaMap(config));
+    }
 
-    public List<Map<String, Object>> validateAndConvert(List<Map<String, String>> rawData, Application config) {
-        Map<String, SchemaField> schemaMap = getOrCreateSchemaMap(config);
-        List<ValidationError> errors = new ArrayList<>();
-        List<Map<String, Object>> result = IntStream.range(0, rawData.size())
-                .mapToObj(i -> {
-                    try {
-                        return processRecord(rawData.get(i), schemaMap, i + 2, config);
-                    } catch (RuntimeException e) {
-                        errors.add(new ValidationError(i + 2, null, e.getMessage()));  // Could enhance ValidationError with field
-                        return null;
-                    }
-                })
-                .filter(Objects::nonNull)
-                .collect(Collectors.toList());  // Use collect for mutability if needed later
-
-        // Batch validation for DATA_CAPTURE: Ensure sum of AMOUNT.LCY where SIGN='C' equals sum where SIGN='D'
-        if ("DATA_CAPTURE".equals(config.name)) {  // Assuming getter; use config.code if direct field
-            BigDecimal creditSum = BigDecimal.ZERO;
-            BigDecimal debitSum = BigDecimal.ZERO;
-            for (Map<String, Object> record : result) {
+    @PreDestroy
+    void shutdown() {
+        if (pool != null) pool.shutdown();
+    }
+
+    public final class Session {
+        private final Application config;
+        private final Map<String, SchemaField> schemaMap;
+        private final Tally tally;
+
+        private Session(Application config, Map<String, SchemaField> schemaMap) {
+            this.config = config;
+            this.schemaMap = schemaMap;
+            this.tally = new Tally(config, schemaMap);
+        }
+
+        /**
+         * @return the converted row, or null if it is invalid (the error is recorded)
+         */
+        public Map<String, Object> validate(Map<String, String> raw, int line) {
+            return tally.validate(raw, line);
+        }
+
+        /**
+         * Validates a block of consecutive rows on the validation fork-join pool: the
+         * block is split into ranges of {@code app.validation.parallel.leaf-rows}, each
+         * validated into its own {@link Tally}, and the tallies are merged left to right
+         * — errors stay in line order and the DATA_CAPTURE sums are the same as
+         * row by row.
+         *
+         * @param firstLine line number of {@code raws.get(0)}
+         * @return the converted rows, index for index; null where a row is invalid
+         */
+        public List<Map<String, Object>> validateAll(List<Map<String, String>> raws, int firstLine) {
+            @SuppressWarnings("unchecked")
+            Map<String, Object>[] records = new Map[raws.size()];
+            if (raws.size() <= Math.max(1, parallelLeafRows)) {
+                for (int i = 0; i < records.length; i++) records[i] = tally.validate(raws.get(i), firstLine + i);
+            } else {
+                tally.merge(pool().invoke(new ValidateRange(config, schemaMap, raws, firstLine, records, 0, records.length)));
+            }
+            return Arrays.asList(records);
+        }
+
+        public boolean hasErrors() {
+            return tally.errorCount > 0;
+        }
+
+        /**
+         * Batch-level checks once every row has been seen.
+         *
+         * @throws ValidationException with every row and batch error, in line order
+         */
+        public void finish() {
+            List<ValidationError> errors = tally.errors;
+            if (tally.errorCount > errors.size()) {
+                errors.add(new ValidationError(0, null,
+                        (tally.errorCount - errors.size()) + " more invalid line(s) not listed"));
+            }
+            if ("DATA_CAPTURE".equals(config.name) && !tally.creditSum.equals(tally.debitSum)) {
+                String batchErrorMsg = String.format("Batch validation failed: Sum of AMOUNT.LCY for SIGN='C' (%s) does not equal sum for SIGN='D' (%s)", tally.creditSum, tally.debitSum);
+                errors.add(new ValidationError(0, null, batchErrorMsg));  // Line 0 indicates batch-level error
+            }
+            if (!errors.isEmpty()) {
+                throw new ValidationException(errors);
+            }
+        }
+    }
+
+    // ── Per-range results ─────────────────────────────────────────────────────
+
+    /**
+     * What validating a run of consecutive rows produced: its first errors, how many
+     * rows failed, and the DATA_CAPTURE sums. Merging the tally of the following rows
+     * keeps both the errors in line order and the totals.
+     */
+    private final class Tally {
+        private final Application config;
+        private final Map<String, SchemaField> schemaMap;
+        final List<ValidationError> errors = new ArrayList<>();
+        long errorCount;
+        // DATA_CAPTURE: sum of AMOUNT.LCY where SIGN='C' must equal sum where SIGN='D'
+        BigDecimal creditSum = BigDecimal.ZERO;
+        BigDecimal debitSum = BigDecimal.ZERO;
+
+        Tally(Application config, Map<String, SchemaField> schemaMap) {
+            this.config = config;
+            this.schemaMap = schemaMap;
+        }
+
+        Map<String, Object> validate(Map<String, String> raw, int line) {
+            Map<String, Object> record;
+            try {
+                record = processRecord(raw, schemaMap, line, config);
+            } catch (RuntimeException e) {
+                if (errorCount++ < maxReportedErrors)
+                    errors.add(new ValidationError(line, null, e.getMessage()));  // Could enhance ValidationError with field
+                return null;
+            }
+            if ("DATA_CAPTURE".equals(config.name)) {  // Assuming getter; use config.code if direct field
                 String sign = (String) record.get("SIGN");
                 BigDecimal amountLcy = (BigDecimal) record.get("AMOUNT.LCY");
                 if (amountLcy != null) {
@@ -61,16 +160,75 @@ public class FileValidator {
                     }
                 }
             }
-            if (!creditSum.equals(debitSum)) {
-                String batchErrorMsg = String.format("Batch validation failed: Sum of AMOUNT.LCY for SIGN='C' (%s) does not equal sum for SIGN='D' (%s)", creditSum, debitSum);
-                errors.add(new ValidationError(0, null, batchErrorMsg));  // Line 0 indicates batch-level error
+            return record;
+        }
+
+        /**
+         * Appends the tally of the rows right after this one's.
+         */
+        Tally merge(Tally next) {
+            for (ValidationError e : next.errors) {
+                if (errors.size() >= maxReportedErrors) break;
+                errors.add(e);
             }
+            errorCount += next.errorCount;
+            creditSum = creditSum.add(next.creditSum);
+            debitSum = debitSum.add(next.debitSum);
+            return this;
         }
+    }
 
-        if (!errors.isEmpty()) {
-            throw new ValidationException(errors);
+    /**
+     * Fork-join task: halves the range until it is at most {@code parallelLeafRows}
+     * rows, validates the leaves and merges their tallies in order. Each leaf writes
+     * only its own slots of {@code records}.
+     */
+    private final class ValidateRange extends RecursiveTask<Tally> {
+        private final Application config;
+        private final Map<String, SchemaField> schemaMap;
+        private final List<Map<String, String>> raws;
+        private final int firstLine;
+        private final Map<String, Object>[] records;
+        private final int from;
+        private final int to;
+
+        ValidateRange(Application config, Map<String, SchemaField> schemaMap, List<Map<String, String>> raws,
+                      int firstLine, Map<String, Object>[] records, int from, int to) {
+            this.config = config;
+            this.schemaMap = schemaMap;
+            this.raws = raws;
+            this.firstLine = firstLine;
+            this.records = records;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Tally compute() {
+            if (to - from <= Math.max(1, parallelLeafRows)) {
+                Tally tally = new Tally(config, schemaMap);
+                for (int i = from; i < to; i++) records[i] = tally.validate(raws.get(i), firstLine + i);
+                return tally;
+            }
+            int mid = (from + to) >>> 1;
+            ValidateRange right = new ValidateRange(config, schemaMap, raws, firstLine, records, mid, to);
+            right.fork();
+            Tally left = new ValidateRange(config, schemaMap, raws, firstLine, records, from, mid).compute();
+            return left.merge(right.join());
+        }
+    }
+
+    private ForkJoinPool pool() {
+        ForkJoinPool p = pool;
+        if (p == null) {
+            synchronized (this) {
+                if (pool == null) {
+                    pool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+                }
+                p = pool;
+            }
         }
-        return result;
+        return p;
     }
 
     private Map<String, SchemaField> getOrCreateSchemaMap(Application config) {
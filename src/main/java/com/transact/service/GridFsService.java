@@ -4,14 +4,27 @@ import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoDatabase;
 import com.mongodb.client.gridfs.GridFSBucket;
 import com.mongodb.client.gridfs.GridFSBuckets;
+import com.mongodb.client.gridfs.GridFSUploadStream;
 import com.mongodb.client.gridfs.model.GridFSUploadOptions;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
+import org.bson.BsonObjectId;
 import org.bson.Document;
 import org.bson.types.ObjectId;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.context.ManagedExecutor;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 /**
  * Thin wrapper around MongoDB GridFS.
@@ -27,6 +40,9 @@ public class GridFsService {
     @Inject
     MongoClient mongoClient;
 
+    @Inject
+    ManagedExecutor managedExecutor;
+
     @ConfigProperty(name = "quarkus.mongodb.database", defaultValue = "transactdb")
     String databaseName;
 
@@ -61,6 +77,26 @@ public class GridFsService {
         return bucket().uploadFromStream(filename, inputStream, opts);
     }
 
+    /**
+     * Stores a file while it is being read by someone else: every block read from
+     * {@link Tee#input()} (by the CSV parser) is handed to a background task writing it
+     * to GridFS under {@code fileId}. The upload is read once and stored while it is
+     * parsed, instead of stored first and re-read.
+     * <p>
+     * {@link Tee#complete()} must be called: it copies whatever the reader left unread
+     * and waits for the upload. Closing {@link Tee#input()} (as parsers do) has no effect
+     * on the upload; closing the tee itself before {@code complete()} aborts it.
+     *
+     * @param fileId id given to the stored file (known before anything is written)
+     */
+    public Tee tee(ObjectId fileId, String filename, InputStream source, String uploadedBy) {
+        GridFSUploadOptions opts = new GridFSUploadOptions()
+                .chunkSizeBytes(255 * 1024) // 255 KB chunks (GridFS default)
+                .metadata(new Document("uploadedBy", uploadedBy));
+        return new Tee(source, () -> bucket().openUploadStream(new BsonObjectId(fileId), filename, opts),
+                managedExecutor);
+    }
+
     /**
      * Open a download stream for a previously stored file.
      *
@@ -80,4 +116,136 @@ public class GridFsService {
         if (fileId == null) return;
         bucket().delete(fileId);
     }
+
+    public static final class Tee implements AutoCloseable {
+
+        private static final int QUEUE_BLOCKS = 32;
+        private static final byte[] EOF = new byte[0];
+
+        private final InputStream source;
+        private final BlockingQueue<byte[]> blocks = new ArrayBlockingQueue<>(QUEUE_BLOCKS);
+        private final CompletableFuture<Void> upload;
+        private final InputStream input = new Input();
+        private volatile boolean aborted;
+        private boolean sourceDone;
+        private boolean completed;
+
+        private Tee(InputStream source, Supplier<GridFSUploadStream> target, Executor executor) {
+            this.source = source;
+            this.upload = CompletableFuture.runAsync(() -> write(target), executor);
+        }
+
+        /**
+         * The stream to parse. Closing it leaves both the source and the upload alone.
+         */
+        public InputStream input() {
+            return input;
+        }
+
+        private void write(Supplier<GridFSUploadStream> target) {
+            GridFSUploadStream out = target.get();
+            try {
+                for (byte[] block = take(); block != EOF && !aborted; block = take()) {
+                    out.write(block);
+                }
+            } catch (RuntimeException e) {
+                out.abort();
+                throw e;
+            }
+            if (aborted) {
+                out.abort();
+                throw new IllegalStateException("GridFS upload aborted");
+            }
+            out.close();
+        }
+
+        private byte[] take() {
+            try {
+                return blocks.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("GridFS upload interrupted", e);
+            }
+        }
+
+        /**
+         * Queues a block for the writer, waiting while the queue is full; gives up as soon
+         * as the upload has ended (failed), so a dead writer never blocks the reader.
+         */
+        private void hand(byte[] block) throws IOException {
+            try {
+                while (!blocks.offer(block, 100, TimeUnit.MILLISECONDS)) {
+                    if (upload.isDone()) break;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("GridFS upload interrupted");
+            }
+            if (upload.isDone()) complete();   // surfaces the storage error
+        }
+
+        private int read(byte[] b, int off, int len) throws IOException {
+            if (sourceDone) return -1;
+            int n = source.read(b, off, len);
+            if (n < 0) {
+                sourceDone = true;
+                return -1;
+            }
+            if (n > 0) hand(Arrays.copyOfRange(b, off, off + n));
+            return n;
+        }
+
+        /**
+         * Copies the unread rest of the source, then waits until the file is stored.
+         *
+         * @throws IOException the file could not be stored, or the tee was closed first
+         */
+        public void complete() throws IOException {
+            if (aborted) throw new IOException("GridFS upload aborted");
+            if (!completed) {
+                completed = true;   // hand() calls back in here once the upload has ended
+                byte[] buf = new byte[64 * 1024];
+                while (!sourceDone && !upload.isDone()) {
+                    int n = source.read(buf, 0, buf.length);
+                    if (n < 0) sourceDone = true;
+                    else if (n > 0) hand(Arrays.copyOf(buf, n));
+                }
+                hand(EOF);
+            }
+            try {
+                upload.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("GridFS upload interrupted");
+            } catch (ExecutionException e) {
+                throw new IOException("GridFS upload failed: " + e.getCause().getMessage(), e.getCause());
+            }
+        }
+
+        /**
+         * Aborts the upload unless {@link #complete()} was called.
+         */
+        @Override
+        public void close() {
+            if (!completed) {
+                completed = true;
+                aborted = true;
+                blocks.offer(EOF);
+            }
+        }
+
+        private final class Input extends InputStream {
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                int n = read(one, 0, 1);
+                return n < 0 ? -1 : one[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return Tee.this.read(b, off, len);
+            }
+        }
+    }
 }
@@ -0,0 +1,184 @@
+package com.transact.service;
+
+import com.transact.processor.model.SchemaField;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * SchemaMapper — maps a validated row to a gateway request body, compiled once from an
+ * application schema.
+ * <p>
+ * Each schema field's {@code ofsMapping} (T24 field, e.g. {@code DEBIT.ACCT.NO}) names a
+ * public field of the body: its camelCase form ({@code debitAcctNo}) unless the
+ * {@link Spec} gives an alias. Compilation resolves every mapped column to a
+ * MethodHandle setter plus a converter, so mapping a row is one pass over two arrays —
+ * no string switch, no reflection, and columns without a target are never looked at.
+ * A column without a target that the {@link Spec} does not list as not sent is reported
+ * by {@link #unmapped()} (a typo in ofsMapping, or a column added to the schema).
+ */
+public final class SchemaMapper<B> {
+
+    /**
+     * Target body type and its deviations from the naming convention.
+     *
+     * @param aliases    ofsMapping → body field name, where camelCase does not fit
+     * @param converters body field name → converter from the trimmed CSV value
+     *                   (default: String as is, BigDecimal parsed with grouping commas removed)
+     * @param notSent    ofsMappings of schema columns this gateway deliberately does not receive
+     */
+    public record Spec<B>(Class<B> type, Supplier<B> factory, Map<String, String> aliases,
+                          Map<String, Function<String, Object>> converters, Set<String> notSent) {
+
+        public static <B> Spec<B> of(Class<B> type, Supplier<B> factory) {
+            return new Spec<>(type, factory, Map.of(), Map.of(), Set.of());
+        }
+
+        public Spec<B> notSent(String... ofsMappings) {
+            return new Spec<>(type, factory, aliases, converters, Set.of(ofsMappings));
+        }
+    }
+
+    private final Supplier<B> factory;
+    private final String[] columns;
+    private final BiConsumer<B, String>[] setters;
+    private final List<String> unmapped;
+
+    private SchemaMapper(Supplier<B> factory, String[] columns, BiConsumer<B, String>[] setters,
+                         List<String> unmapped) {
+        this.factory = factory;
+        this.columns = columns;
+        this.setters = setters;
+        this.unmapped = unmapped;
+    }
+
+    /**
+     * New body filled from the row's data; blank values leave the field null.
+     */
+    public B map(Map<String, Object> data) {
+        B body = factory.get();
+        if (data == null) return body;
+        for (int i = 0; i < columns.length; i++) {
+            Object v = data.get(columns[i]);
+            if (v == null) continue;
+            String s = v.toString().trim();
+            if (!s.isEmpty()) setters[i].accept(body, s);
+        }
+        return body;
+    }
+
+    public int size() {
+        return columns.length;
+    }
+
+    /**
+     * ofsMappings of the schema columns with no body field that are not marked as not sent.
+     */
+    public List<String> unmapped() {
+        return unmapped;
+    }
+
+    // ── Compilation ───────────────────────────────────────────────────────────
+
+    @SuppressWarnings("unchecked")
+    public static <B> SchemaMapper<B> compile(List<SchemaField> schema, Spec<B> spec) {
+        List<String> columns = new ArrayList<>();
+        List<BiConsumer<B, String>> setters = new ArrayList<>();
+        List<String> unmapped = new ArrayList<>();
+        MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+
+        for (SchemaField f : schema != null ? schema : List.<SchemaField>of()) {
+            String ofs = f.getOfsMapping() != null && !f.getOfsMapping().isBlank()
+                    ? f.getOfsMapping() : f.getFieldName();
+            String property = spec.aliases().getOrDefault(ofs, camelCase(ofs));
+            Field target = publicField(spec.type(), property);
+            if (target == null) {
+                if (!spec.notSent().contains(ofs)) unmapped.add(ofs);
+                continue;
+            }
+
+            Function<String, Object> convert = spec.converters().getOrDefault(property, converterFor(target.getType()));
+            MethodHandle setter;
+            try {
+                setter = lookup.unreflectSetter(target)
+                        .asType(MethodType.methodType(void.class, Object.class, Object.class));
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException("Cannot access " + spec.type().getSimpleName() + "." + property, e);
+            }
+            columns.add(f.getFieldName());
+            setters.add((body, raw) -> {
+                Object value = convert.apply(raw);
+                if (value == null) return;
+                try {
+                    setter.invokeExact((Object) body, value);
+                } catch (Throwable t) {
+                    throw new IllegalStateException("Cannot set " + property, t);
+                }
+            });
+        }
+        return new SchemaMapper<>(spec.factory(), columns.toArray(new String[0]),
+                setters.toArray(new BiConsumer[0]), List.copyOf(unmapped));
+    }
+
+    /**
+     * Identity of the parts of a schema that affect mapping.
+     */
+    public static int fingerprint(List<SchemaField> schema) {
+        if (schema == null) return 0;
+        int h = 1;
+        for (SchemaField f : schema) h = 31 * h + Objects.hash(f.getFieldName(), f.getOfsMapping());
+        return h;
+    }
+
+    /**
+     * {@code DEBIT.ACCT.NO} → {@code debitAcctNo}.
+     */
+    static String camelCase(String ofs) {
+        StringBuilder sb = new StringBuilder(ofs.length());
+        boolean upper = false;
+        for (char c : ofs.toCharArray()) {
+            if (c == '.' || c == '_' || c == '@') {
+                upper = sb.length() > 0;
+                continue;
+            }
+            sb.append(upper ? Character.toUpperCase(c) : Character.toLowerCase(c));
+            upper = false;
+        }
+        return sb.toString();
+    }
+
+    private static Field publicField(Class<?> type, String name) {
+        try {
+            Field f = type.getField(name);
+            return Modifier.isStatic(f.getModifiers()) || Modifier.isFinal(f.getModifiers()) ? null : f;
+        } catch (NoSuchFieldException e) {
+            return null;
+        }
+    }
+
+    private static Function<String, Object> converterFor(Class<?> type) {
+        if (type == BigDecimal.class) return SchemaMapper::parseAmount;
+        if (type == String.class) return s -> s;
+        throw new IllegalStateException("Unsupported mapped field type: " + type.getName());
+    }
+
+    private static BigDecimal parseAmount(String val) {
+        try {
+            return new BigDecimal(val.replace(",", ""));
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.transact.service;
+
+import com.transact.processor.model.Application;
+import com.transact.processor.model.SchemaField;
+import io.quarkus.logging.Log;
+import jakarta.enterprise.context.ApplicationScoped;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * SchemaMappers — compiled {@link SchemaMapper}s per application and body type.
+ * <p>
+ * The application schema is re-read at most every {@code app.processing.mapper.refresh}
+ * and the mapper recompiled only when a field name or ofsMapping changed; saving an
+ * application through {@link ApplicationService} drops its mappers at once.
+ */
+@ApplicationScoped
+public class SchemaMappers {
+
+    @ConfigProperty(name = "app.processing.mapper.refresh", defaultValue = "60s")
+    Duration refresh;
+
+    private final Map<String, Compiled> compiled = new ConcurrentHashMap<>();
+
+    private record Compiled(SchemaMapper<?> mapper, int fingerprint, Instant checkedAt) {
+    }
+
+    @SuppressWarnings("unchecked")
+    public <B> SchemaMapper<B> get(String applicationName, SchemaMapper.Spec<B> spec) {
+        String key = applicationName + "|" + spec.type().getName();
+        Compiled current = compiled.get(key);
+        if (current != null && current.checkedAt().plus(refresh).isAfter(Instant.now()))
+            return (SchemaMapper<B>) current.mapper();
+
+        return (SchemaMapper<B>) compiled.compute(key, (k, prev) -> {
+            if (prev != null && prev.checkedAt().plus(refresh).isAfter(Instant.now())) return prev;
+            Application app = Application.findByName(applicationName);
+            List<SchemaField> schema = app != null ? app.getSchema() : null;
+            int fingerprint = SchemaMapper.fingerprint(schema);
+            if (prev != null && prev.fingerprint() == fingerprint)
+                return new Compiled(prev.mapper(), fingerprint, Instant.now());
+
+            SchemaMapper<B> mapper = SchemaMapper.compile(schema, spec);
+            Log.infof("[MAPPER] %s → %s compiled (%d mapped column(s))",
+                    applicationName, spec.type().getSimpleName(), mapper.size());
+            // Once per compilation: a wrong ofsMapping would otherwise drop the field from every transfer
+            if (!mapper.unmapped().isEmpty())
+                Log.warnf("[MAPPER] %s → %s: no body field for %s — these columns are NOT sent",
+                        applicationName, spec.type().getSimpleName(), mapper.unmapped());
+            return new Compiled(mapper, fingerprint, Instant.now());
+        }).mapper();
+    }
+
+    public void invalidate(String applicationName) {
+        compiled.keySet().removeIf(k -> k.startsWith(applicationName + "|"));
+    }
+}
@@ -11,6 +11,7 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.stream.Stream;
 
 /**
  * Single source of truth for VIREMENT_SALAIRE charge computation.
@@ -46,20 +47,28 @@ public class VirementSalaireBillingService {
     }
 
     /**
-     * Compute totals for a batch (loads its rows).
+     * Compute totals for a batch (reads its rows through a cursor).
      */
     public Billing computeForBatch(ObjectId batchId, String mode, BigDecimal flatFee, String countryCode) {
-        return compute(BatchData.findByBatchId(batchId), resolveMode(mode), resolveFlatFee(flatFee),
-                internalPrefixFor(countryCode));
+        try (Stream<BatchData> rows = BatchData.streamByBatchId(batchId)) {
+            return compute(rows::iterator, resolveMode(mode), resolveFlatFee(flatFee),
+                    internalPrefixFor(countryCode));
+        }
     }
 
-    public Billing compute(List<BatchData> rows, String mode, BigDecimal flatFee, String internalPrefix) {
+    /**
+     * Single pass over the rows — payroll files run to 200k lines, so they are
+     * streamed rather than held in a list.
+     */
+    public Billing compute(Iterable<BatchData> rows, String mode, BigDecimal flatFee, String internalPrefix) {
         BigDecimal perTxnFee = VirementSalaireSettings.get().perTransactionFee;
         if (perTxnFee == null) perTxnFee = BigDecimal.ZERO;
 
         BigDecimal z = BigDecimal.ZERO;
+        int total = 0;
         int external = 0;
         for (BatchData r : rows) {
+            total++;
             z = z.add(amount(r));
             if (isExternal(benAcct(r), internalPrefix)) external++;
         }
@@ -71,9 +80,9 @@ public class VirementSalaireBillingService {
         };
         Billing b = new Billing();
         b.mode = m;
-        b.totalRows = rows.size();
+        b.totalRows = total;
         b.externalCount = external;
-        b.internalCount = rows.size() - external;
+        b.internalCount = total - external;
         b.netTotalZ = z;
         b.perTransactionFee = perTxnFee;
         b.flatFee = flatFee;
@@ -284,7 +284,7 @@ class AdminDashboard {
             line.innerHTML = `
                 <span style="${s.time};font-variant-numeric:tabular-nums;flex-shrink:0;">${time}</span>
                 <span style="${s.level};flex-shrink:0;min-width:3.5rem;">[${level}]</span>
-                <span style="${s.msg};word-break:break-all;">${this.escapeHtml(log.message || '')}</span>
+                <span style="${s.msg};word-break:break-all;">${this.escapeHtml(this.formatLogMessage(log))}</span>
             `;
             fragment.appendChild(line);
         });
@@ -294,6 +294,16 @@ class AdminDashboard {
         if (container) container.scrollTop = container.scrollHeight;
     }
 
+    // Row errors are grouped server-side: one entry per distinct error with its count
+    formatLogMessage(log) {
+        let msg = log.message || '';
+        if (log.occurrences > 1) {
+            msg += ` — ×${log.occurrences} (lignes ${log.firstLine} à ${log.lastLine})`;
+        }
+        if (log.samplePayload) msg += ` | Payload: ${log.samplePayload}`;
+        return msg;
+    }
+
     applyFilters() {
         const batchId = this.elements.batchSelector?.value || null;
         const level   = this.elements.levelFilter?.value   || null;
@@ -316,7 +326,7 @@ class AdminDashboard {
         this.currentLogs.forEach(log => {
             const esc = s => { const str = String(s||''); return (str.includes(',') || str.includes('"') || str.includes('\n')) ? `"${str.replace(/"/g,'""')}"` : str; };
             const time = log.timestamp ? new Date(log.timestamp).toLocaleString('fr-FR') : '';
-            rows.push([esc(time), esc(log.level), esc(log.message)].join(','));
+            rows.push([esc(time), esc(log.level), esc(this.formatLogMessage(log))].join(','));
         });
         // UTF-8 BOM + CRLF so Excel renders accented French correctly.
         const blob = new Blob(['\ufeff' + rows.join('\r\n')], {type: 'text/csv;charset=utf-8;'});
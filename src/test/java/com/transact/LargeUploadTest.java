@@ -0,0 +1,121 @@
+package com.transact;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.gridfs.GridFSBuckets;
+import com.mongodb.client.model.Filters;
+import com.transact.processor.model.BatchData;
+import com.transact.processor.model.FileBatch;
+import com.transact.processor.model.OperatingWindow;
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.security.TestSecurity;
+import io.restassured.response.Response;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.function.IntPredicate;
+
+import static com.transact.UploadResourceTest.FT_HEADER;
+import static com.transact.UploadResourceTest.batchOf;
+import static com.transact.UploadResourceTest.upload;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Uploads above the large-file threshold (5M) against the per-application limits of
+ * application.properties: FUNDS_TRANSFER 200 000 lines / 64M, FUNDS_TRANSFER_REVERSAL
+ * the 10M default.
+ */
+@QuarkusTest
+@TestSecurity(user = "inputter", roles = "INPUTTER")
+class LargeUploadTest {
+
+    static final int FT_MAX_LINES = 200_000;
+
+    @Inject
+    MongoClient mongoClient;
+
+    @ConfigProperty(name = "quarkus.mongodb.database")
+    String database;
+
+    @BeforeEach
+    void openWindow() {
+        OperatingWindow window = OperatingWindow.get();
+        window.adminKeepOpen = true;
+        window.persistOrUpdate();
+    }
+
+    @Test
+    void fundsTransferAtLineLimitIsIngested() {
+        byte[] content = fundsTransfer(FT_MAX_LINES, line -> false);
+        assertTrue(content.length > 5 * 1024 * 1024, "file must be in large-file mode");
+
+        Response response = upload("FUNDS_TRANSFER", filename(), content, 200);
+        assertEquals(FT_MAX_LINES, response.jsonPath().getInt("recordCount"));
+        FileBatch batch = batchOf(response);
+        assertEquals(FT_MAX_LINES, batch.rowsPending);
+        assertEquals(FT_MAX_LINES, BatchData.count("batchId", batch.id));
+    }
+
+    @Test
+    void overLineLimitIsRejectedAndNothingKept() {
+        String filename = filename();
+        Response response = upload("FUNDS_TRANSFER", filename, fundsTransfer(FT_MAX_LINES + 1, line -> false), 413);
+        assertTrue(response.jsonPath().getString("message").contains(String.valueOf(FT_MAX_LINES)));
+
+        assertNull(GridFSBuckets.create(mongoClient.getDatabase(database), "uploads")
+                .find(Filters.eq("filename", filename)).first(), "GridFS file must be deleted");
+        assertEquals(0, FileBatch.count("originalFilename", filename));
+    }
+
+    @Test
+    void defaultByteLimitAppliesToOtherApplications() {
+        // 12M: accepted for FUNDS_TRANSFER (64M), over the 10M default for the reversal
+        byte[] content = fundsTransfer(FT_MAX_LINES, line -> false);
+        String filename = filename();
+        Response response = upload("FUNDS_TRANSFER_REVERSAL", filename, content, 413);
+        assertTrue(response.jsonPath().getString("message").contains("10 Mo"));
+        assertEquals(0, FileBatch.count("originalFilename", filename));
+    }
+
+    @Test
+    void errorsAreReportedInLineOrder() {
+        // Invalid rows spread over every validation block; the file stays in large-file mode
+        Set<Integer> bad = Set.of(2, 997, 9_999, 10_000, 10_001, 10_002, 33_333, 50_000, 77_777, 100_001);
+        byte[] content = fundsTransfer(100_000, bad::contains);
+
+        Response response = upload("FUNDS_TRANSFER", filename(), content, 400);
+        List<Integer> lines = response.jsonPath().getList("details.line", Integer.class);
+        assertEquals(new ArrayList<>(new TreeSet<>(bad)), lines);
+    }
+
+    // ── Helpers ───────────────────────────────────────────────────────────────
+
+    private static String filename() {
+        return "large-" + UUID.randomUUID() + ".csv";
+    }
+
+    /**
+     * {@code rows} FUNDS_TRANSFER rows; the header is line 1, rows for which {@code invalid}
+     * holds (by line number) have no DEBIT.ACCT.NO.
+     */
+    static byte[] fundsTransfer(int rows, IntPredicate invalid) {
+        StringBuilder csv = new StringBuilder(FT_HEADER.length() + rows * 64).append(FT_HEADER);
+        for (int i = 1; i <= rows; i++) {
+            int line = i + 1;
+            csv.append("AC,")
+                    .append(invalid.test(line) ? "" : String.format("%010d", i))
+                    .append(',').append(String.format("%010d", 1_000_000_000 - i))
+                    .append(",1500.00,XOF,Salaire ligne ").append(line).append('\n');
+        }
+        return csv.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,99 @@
+package com.transact;
+
+import com.transact.processor.model.FileBatch;
+import com.transact.processor.model.OperatingWindow;
+import com.transact.service.GridFsService;
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.security.TestSecurity;
+import io.restassured.response.Response;
+import jakarta.inject.Inject;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+import static io.restassured.RestAssured.given;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+@QuarkusTest
+@TestSecurity(user = "inputter", roles = "INPUTTER")
+class UploadResourceTest {
+
+    static final String FT_HEADER = "TRANSACTION.TYPE,DEBIT.ACCT.NO,CREDIT.ACCT.NO,DEBIT.AMOUNT,DEBIT.CURRENCY,PAYMENT.DETAILS\n";
+
+    @Inject
+    GridFsService gridFsService;
+
+    @BeforeEach
+    void openWindow() {
+        OperatingWindow window = OperatingWindow.get();
+        window.adminKeepOpen = true;
+        window.persistOrUpdate();
+    }
+
+    @Test
+    void storedFileMatchesUpload() throws Exception {
+        StringBuilder csv = new StringBuilder(FT_HEADER);
+        for (int i = 1; i <= 50; i++) {
+            csv.append("AC,00110000").append(1000 + i).append(",0022000000").append(i % 10)
+                    .append(",1500.00,XOF,Salaire ").append(i).append('\n');
+        }
+        byte[] content = csv.toString().getBytes(StandardCharsets.UTF_8);
+
+        FileBatch batch = batchOf(upload("FUNDS_TRANSFER", content, 200));
+        assertEquals(50L, batch.rowsPending);
+        assertArrayEquals(content, readBack(batch.gridFsFileId));
+    }
+
+    @Test
+    void storedFileKeptWhenValidationFails() throws Exception {
+        // Line 3 has no DEBIT.ACCT.NO: the parser stops inserting, the file is still stored whole
+        String csv = FT_HEADER
+                + "AC,0011000001,0022000001,1500.00,XOF,Salaire\n"
+                + "AC,,0022000002,1500.00,XOF,Salaire\n"
+                + "AC,0011000003,0022000003,1500.00,XOF,Salaire\n";
+        byte[] content = csv.getBytes(StandardCharsets.UTF_8);
+
+        upload("FUNDS_TRANSFER", content, 400);
+        FileBatch failed = FileBatch.find("originalFilename", lastFilename).firstResult();
+        assertNotNull(failed);
+        assertEquals(FileBatch.STATUS_VALIDATED_FAILED, failed.status);
+        assertArrayEquals(content, readBack(failed.gridFsFileId));
+    }
+
+    // ── Helpers ───────────────────────────────────────────────────────────────
+
+    private String lastFilename;
+
+    private Response upload(String application, byte[] content, int expectedStatus) {
+        lastFilename = "upload-" + UUID.randomUUID() + ".csv";
+        return upload(application, lastFilename, content, expectedStatus);
+    }
+
+    static Response upload(String application, String filename, byte[] content, int expectedStatus) {
+        return given()
+                .multiPart("applicationName", application)
+                .multiPart("file", filename, content, "text/csv")
+                .when().post("/api/v1/inputter/upload")
+                .then().statusCode(expectedStatus)
+                .extract().response();
+    }
+
+    static FileBatch batchOf(Response response) {
+        FileBatch batch = FileBatch.findById(new ObjectId(response.jsonPath().getString("batchId")));
+        assertNotNull(batch);
+        return batch;
+    }
+
+    private byte[] readBack(ObjectId fileId) throws Exception {
+        assertNotNull(fileId);
+        try (InputStream in = gridFsService.open(fileId)) {
+            return in.readAllBytes();
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.transact.service;
+
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+import com.transact.processor.model.Application;
+import com.transact.processor.model.BatchData;
+import io.quarkus.test.junit.QuarkusTest;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import org.bson.types.ObjectId;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@QuarkusTest
+class BatchIngestorTest {
+
+    static final int ROWS = 200_000;
+
+    @Inject
+    BatchIngestor batchIngestor;
+
+    @Inject
+    InsertRecorder inserts;
+
+    @ConfigProperty(name = "com.transact.upload.insert-chunk-size")
+    int chunkSize;
+
+    @ConfigProperty(name = "com.transact.upload.large-file.max-inflight-inserts")
+    int maxInFlightInserts;
+
+    /**
+     * The file is never held whole: rows reach Mongo in chunks of at most insert-chunk-size,
+     * with at most max-inflight-inserts chunks outstanding at once.
+     */
+    @Test
+    void virementSalaireFileIsIngestedInBoundedChunks() throws Exception {
+        byte[] content = virementSalaire(ROWS);
+        Application app = Application.findByName("VIREMENT_SALAIRE");
+        ObjectId batchId = new ObjectId();
+
+        inserts.reset();
+        long rows = batchIngestor.ingest(new ByteArrayInputStream(content), app, batchId, ROWS, content.length);
+
+        try {
+            assertEquals(ROWS, rows);
+            assertEquals(ROWS, BatchData.count("batchId", batchId));
+            assertEquals(ROWS, inserts.rows.get());
+            assertTrue(inserts.largestChunk.get() <= chunkSize,
+                    "largest insert: " + inserts.largestChunk.get() + " rows");
+            assertTrue(inserts.chunks.get() >= ROWS / chunkSize,
+                    "inserts: " + inserts.chunks.get());
+            assertTrue(inserts.peakInFlight.get() <= maxInFlightInserts,
+                    "inserts outstanding at once: " + inserts.peakInFlight.get());
+        } finally {
+            batchIngestor.discard(batchId);
+        }
+    }
+
+    private static byte[] virementSalaire(int rows) {
+        StringBuilder csv = new StringBuilder(rows * 80)
+                .append("L.BEN.ACC.NO,L.BEN.NAME,L.BEN.ADDR,CREDIT.AMOUNT,PAYMENT.DETAILS\n");
+        for (int i = 1; i <= rows; i++) {
+            csv.append(String.format("CI%010d", i)).append(",Employe ").append(i)
+                    .append(",Abidjan,").append(250_000 + i % 1000).append(".00,Salaire\n");
+        }
+        return csv.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    // ── Insert commands on batch_data, as the driver sends them ──
+
+    @Singleton
+    static class InsertRecorder implements CommandListener {
+
+        final AtomicLong rows = new AtomicLong();
+        final AtomicInteger chunks = new AtomicInteger();
+        final AtomicInteger largestChunk = new AtomicInteger();
+        final AtomicInteger peakInFlight = new AtomicInteger();
+        private final Map<Integer, Boolean> inFlight = new ConcurrentHashMap<>();
+
+        void reset() {
+            rows.set(0);
+            chunks.set(0);
+            largestChunk.set(0);
+            peakInFlight.set(0);
+            inFlight.clear();
+        }
+
+        @Override
+        public void commandStarted(CommandStartedEvent event) {
+            if (!"insert".equals(event.getCommandName())
+                    || !"batch_data".equals(event.getCommand().getString("insert").getValue())) {
+                return;
+            }
+            int size = event.getCommand().getArray("documents").size();
+            rows.addAndGet(size);
+            chunks.incrementAndGet();
+            largestChunk.accumulateAndGet(size, Math::max);
+            inFlight.put(event.getRequestId(), Boolean.TRUE);
+            peakInFlight.accumulateAndGet(inFlight.size(), Math::max);
+        }
+
+        @Override
+        public void commandSucceeded(CommandSucceededEvent event) {
+            inFlight.remove(event.getRequestId());
+        }
+
+        @Override
+        public void commandFailed(CommandFailedEvent event) {
+            inFlight.remove(event.getRequestId());
+        }
+    }
+}